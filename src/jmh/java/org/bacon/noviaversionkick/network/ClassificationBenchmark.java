@@ -0,0 +1,101 @@
+package org.bacon.noviaversionkick.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ViaBrandTracker#shouldUseLegacyParticles} as called once per particle packet
+ * from every event loop, with a population of vanilla, Fabric and unclassified clients.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassificationBenchmark {
+    private static final int CONNECTIONS = 256;
+
+    @State(Scope.Benchmark)
+    public static class Connections {
+        final Holder[] holders = new Holder[CONNECTIONS];
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                Holder holder = new Holder();
+                switch (i % 4) {
+                    case 0 -> holder.info = ViaBrandTracker.ClientInfo.EMPTY.withBrand("vanilla");
+                    case 1 -> holder.info = ViaBrandTracker.ClientInfo.EMPTY.withBrand("fabric");
+                    case 2 -> holder.info = ViaBrandTracker.ClientInfo.EMPTY.withBrand("vanilla")
+                        .withClientMods(List.of("fabricloader", "fabric-api", "sodium", "lithium", "iris"));
+                    default -> holder.info = null;
+                }
+                this.holders[i] = holder;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean threads1(Connections connections, Cursor cursor) {
+        return lookup(connections, cursor);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean threads8(Connections connections, Cursor cursor) {
+        return lookup(connections, cursor);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean threads32(Connections connections, Cursor cursor) {
+        return lookup(connections, cursor);
+    }
+
+    private static boolean lookup(Connections connections, Cursor cursor) {
+        Holder holder = connections.holders[cursor.index++ & (CONNECTIONS - 1)];
+        return ViaBrandTracker.shouldUseLegacyParticles(holder);
+    }
+
+    static final class Holder implements ClientInfoHolder {
+        volatile ViaBrandTracker.ClientInfo info;
+
+        @Override
+        public ViaBrandTracker.ClientInfo noviaversionkick$getClientInfo() {
+            return this.info;
+        }
+
+        @Override
+        public void noviaversionkick$setClientInfo(ViaBrandTracker.ClientInfo info) {
+            this.info = info;
+        }
+
+        @Override
+        public UUID noviaversionkick$getPlayerId() {
+            return null;
+        }
+
+        @Override
+        public void noviaversionkick$setPlayerId(UUID playerId) {
+        }
+    }
+}
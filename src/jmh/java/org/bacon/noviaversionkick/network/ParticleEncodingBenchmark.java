@@ -0,0 +1,97 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.block.Blocks;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.particle.BlockStateParticleEffect;
+import net.minecraft.particle.ParticleTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes particle packet bodies through the vanilla (modern) codec and through the legacy
+ * writer used by {@code ParticleS2CPacketMixin}. Mixins are not applied here, so the legacy
+ * benchmarks call {@link LegacyParticleEncoder} directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParticleEncodingBenchmark {
+    private static final int MIX_SIZE = 1024;
+
+    private ParticleSample[] mix;
+    private ParticleSample suppressed;
+    private ParticleSample blockState;
+    private ByteBuf backing;
+    private RegistryByteBuf buf;
+    private int index;
+
+    @Setup
+    public void setup() {
+        this.backing = Unpooled.directBuffer(256);
+        this.buf = new RegistryByteBuf(this.backing, ParticleSample.bootstrap());
+        this.mix = ParticleSample.realisticMix(MIX_SIZE, 42L);
+        this.suppressed = ParticleSample.of(new BlockStateParticleEffect(ParticleTypes.FALLING_DUST, Blocks.GRAVEL.getDefaultState()), false, 10.5D, 70.2D, -3.7D, 0.2F, 0.2F, 0.2F, 0.0F, 4);
+        this.blockState = ParticleSample.of(new BlockStateParticleEffect(ParticleTypes.BLOCK, Blocks.STONE.getDefaultState()), false, 10.98D, 70.5D, -3.5D, 0.0F, 0.0F, 0.0F, 0.0F, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.backing.release();
+    }
+
+    private ParticleSample next() {
+        return this.mix[this.index++ & (MIX_SIZE - 1)];
+    }
+
+    @Benchmark
+    public int modernMix() {
+        ParticleSample sample = next();
+        this.buf.clear();
+        ParticleS2CPacket.CODEC.encode(this.buf, sample.packet());
+        return this.buf.writerIndex();
+    }
+
+    @Benchmark
+    public int legacyMix() {
+        ParticleSample sample = next();
+        this.buf.clear();
+        writeLegacy(sample);
+        return this.buf.writerIndex();
+    }
+
+    @Benchmark
+    public int legacySuppressed() {
+        this.buf.clear();
+        writeLegacy(this.suppressed);
+        return this.buf.writerIndex();
+    }
+
+    @Benchmark
+    public int alignedPosition() {
+        ParticleSample sample = this.blockState;
+        this.buf.clear();
+        LegacyParticleEncoder.writeAlignedPosition(this.buf, sample.x(), sample.y(), sample.z());
+        return this.buf.writerIndex();
+    }
+
+    private void writeLegacy(ParticleSample sample) {
+        LegacyParticleEncoder.write(this.buf, sample.effect(), sample.forceSpawn(), sample.x(), sample.y(), sample.z(), sample.offsetX(), sample.offsetY(), sample.offsetZ(), sample.speed(), sample.count());
+    }
+}
@@ -0,0 +1,75 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Blocks;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.particle.BlockStateParticleEffect;
+import net.minecraft.particle.DustParticleEffect;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.registry.DynamicRegistryManager;
+import net.minecraft.registry.Registries;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.util.Random;
+
+/**
+ * A particle packet's fields, kept alongside the vanilla packet so that both the modern codec
+ * and {@link LegacyParticleEncoder} can be driven with identical input.
+ */
+record ParticleSample(ParticleEffect effect, boolean forceSpawn, double x, double y, double z, float offsetX, float offsetY, float offsetZ, float speed, int count, ParticleS2CPacket packet) {
+    private static DynamicRegistryManager registryManager;
+
+    static synchronized DynamicRegistryManager bootstrap() {
+        if (registryManager == null) {
+            SharedConstants.createGameVersion();
+            Bootstrap.initialize();
+            ParticleRuleTable.rebuild(new NoviaversionkickConfig.ParticleRules());
+            registryManager = DynamicRegistryManager.of(Registries.REGISTRIES);
+        }
+        return registryManager;
+    }
+
+    static ParticleSample of(ParticleEffect effect, boolean forceSpawn, double x, double y, double z, float offsetX, float offsetY, float offsetZ, float speed, int count) {
+        ParticleS2CPacket packet = new ParticleS2CPacket(effect, forceSpawn, false, x, y, z, offsetX, offsetY, offsetZ, speed, count);
+        return new ParticleSample(effect, forceSpawn, x, y, z, offsetX, offsetY, offsetZ, speed, count, packet);
+    }
+
+    /**
+     * Effects roughly in the proportions seen around redstone farms, mob grinders and TNT:
+     * mostly parameterless effects, a share of block and dust effects and some suppressed
+     * falling dust.
+     */
+    static ParticleSample[] realisticMix(int size, long seed) {
+        ParticleEffect[] effects = {
+            ParticleTypes.FLAME,
+            ParticleTypes.SMOKE,
+            ParticleTypes.POOF,
+            ParticleTypes.EXPLOSION,
+            ParticleTypes.HAPPY_VILLAGER,
+            DustParticleEffect.DEFAULT,
+            DustParticleEffect.DEFAULT,
+            new BlockStateParticleEffect(ParticleTypes.BLOCK, Blocks.STONE.getDefaultState()),
+            new BlockStateParticleEffect(ParticleTypes.BLOCK, Blocks.REDSTONE_WIRE.getDefaultState()),
+            new BlockStateParticleEffect(ParticleTypes.FALLING_DUST, Blocks.SAND.getDefaultState())
+        };
+        Random random = new Random(seed);
+        ParticleSample[] samples = new ParticleSample[size];
+        for (int i = 0; i < size; i++) {
+            samples[i] = of(
+                effects[random.nextInt(effects.length)],
+                random.nextInt(8) == 0,
+                random.nextDouble() * 256.0D - 128.0D,
+                64.0D + random.nextDouble() * 32.0D,
+                random.nextDouble() * 256.0D - 128.0D,
+                random.nextFloat() * 0.5F,
+                random.nextFloat() * 0.5F,
+                random.nextFloat() * 0.5F,
+                random.nextFloat() * 0.1F,
+                random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(20)
+            );
+        }
+        return samples;
+    }
+}
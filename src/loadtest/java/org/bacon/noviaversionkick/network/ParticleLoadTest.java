@@ -0,0 +1,404 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.MessageToByteEncoder;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.registry.DynamicRegistryManager;
+import net.minecraft.registry.Registries;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a realistic particle stream through the legacy and modern encoders into thousands of
+ * in-memory channels from several threads, then decodes every channel's output and checks it
+ * against the format its client was classified for. Run with {@code ./gradlew loadTest},
+ * passing options such as {@code -PloadTestArgs="connections=4000 legacyRatio=0.3"}.
+ *
+ * <p>Channels of legacy clients get the production {@link LegacyEncodingHandler} in front of
+ * their encoder, which publishes the client through {@link EncodingContext} exactly as it
+ * does for a real connection. Mixins are not applied here, so each channel's encoder stands
+ * in for the packet's write hook: it resolves the client from that context, hands legacy
+ * writes to {@link ParticleWriter} with a stand-in implementing
+ * {@link SharedParticleEncoding} the way the packet mixin does, and leaves every other write
+ * to the vanilla codec. Every run starts from fresh packet instances shared by all channels,
+ * as they are for a broadcast, so each is encoded once per format and then served from its
+ * cache.
+ */
+public final class ParticleLoadTest {
+    private static final int MIX_SIZE = 4096;
+    // Stand-ins of the packets of the current run; rebuilt before its workers start and only read while they run
+    private static Map<ParticleS2CPacket, SharedPacket> sharedPackets = new IdentityHashMap<>();
+
+    private ParticleLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        DynamicRegistryManager registries = ParticleSample.bootstrap();
+        NoviaversionkickConfig.Metrics metrics = new NoviaversionkickConfig.Metrics();
+        metrics.timeEncoding = true;
+        ParticleMetrics.configure(metrics);
+
+        ParticleSample[] mix = ParticleSample.realisticMix(MIX_SIZE, options.seed);
+        List<SimulatedClient> clients = createClients(options, registries);
+        System.out.printf(Locale.ROOT, "%d connections (%d expected legacy) on %d threads, %d rounds%n",
+            clients.size(), clients.stream().filter(client -> client.expectLegacy).count(), options.threads, options.rounds);
+
+        // Warm up the encoders before measuring
+        run(clients, mix, options, Math.max(1, options.rounds / 10));
+        ParticleMetrics.reset();
+        for (SimulatedClient client : clients) {
+            client.reset();
+        }
+
+        long start = System.nanoTime();
+        long sent = run(clients, mix, options, options.rounds);
+        double seconds = (System.nanoTime() - start) / 1.0E9D;
+
+        report(clients, sent, seconds);
+        for (SimulatedClient client : clients) {
+            client.channel.finishAndReleaseAll();
+        }
+        long mismatches = clients.stream().mapToLong(client -> client.mismatches).sum();
+        if (mismatches > 0) {
+            System.out.printf(Locale.ROOT, "FAILED: %d packets did not match their connection's format%n", mismatches);
+            System.exit(1);
+        }
+        System.out.println("All channels decoded in their expected format");
+    }
+
+    private static List<SimulatedClient> createClients(Options options, DynamicRegistryManager registries) {
+        Random random = new Random(options.seed);
+        List<SimulatedClient> clients = new ArrayList<>(options.connections);
+        for (int i = 0; i < options.connections; i++) {
+            Profile profile = random.nextDouble() < options.legacyRatio
+                ? LEGACY_PROFILES[random.nextInt(LEGACY_PROFILES.length)]
+                : MODERN_PROFILES[random.nextInt(MODERN_PROFILES.length)];
+            SimulatedClient client = new SimulatedClient(profile.expectLegacy);
+            ViaBrandTracker.ClientInfo info = ViaBrandTracker.ClientInfo.EMPTY.withClientMods(profile.mods).withBrand(profile.brand);
+            client.noviaversionkick$setClientInfo(info.isEmpty() ? null : info);
+            client.registries = registries;
+            client.channel = new EmbeddedChannel();
+            client.channel.pipeline().addLast(LegacyEncodingHandler.ENCODER, new HarnessEncoder(registries));
+            if (ViaBrandTracker.shouldUseLegacyParticles(client)) {
+                LegacyEncodingHandler.install(client.channel.pipeline(), client);
+            }
+            clients.add(client);
+        }
+        return clients;
+    }
+
+    /**
+     * Workers share every channel, as the server thread and other senders do in game. They
+     * take the next write from a shared cursor that walks all channels once per round,
+     * writing the next packet of the shared mix to each, so neighbouring writes land on
+     * different channels and a channel is only contended when the cursor wraps. Each channel
+     * is written and decoded under its own lock, standing in for its event loop.
+     */
+    private static long run(List<SimulatedClient> clients, ParticleSample[] mix, Options options, int rounds) throws Exception {
+        ParticleS2CPacket[] packets = new ParticleS2CPacket[mix.length];
+        Map<ParticleS2CPacket, SharedPacket> shared = new IdentityHashMap<>(mix.length);
+        for (int i = 0; i < mix.length; i++) {
+            SharedPacket packet = new SharedPacket(mix[i]);
+            packets[i] = packet.packet;
+            shared.put(packet.packet, packet);
+        }
+        sharedPackets = shared;
+        ExecutorService workers = Executors.newFixedThreadPool(options.threads);
+        AtomicLong cursor = new AtomicLong();
+        long total = (long) rounds * clients.size();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int worker = 0; worker < options.threads; worker++) {
+                futures.add(workers.submit(() -> {
+                    long next;
+                    while ((next = cursor.getAndIncrement()) < total) {
+                        int round = (int) (next / clients.size());
+                        int i = (int) (next % clients.size());
+                        SimulatedClient client = clients.get(i);
+                        ParticleS2CPacket packet = packets[(round * 31 + i) & (MIX_SIZE - 1)];
+                        synchronized (client) {
+                            client.expected.addLast(shared.get(packet).sample);
+                            client.channel.writeOutbound(packet);
+                            client.verify();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            workers.shutdown();
+        }
+        return total;
+    }
+
+    private static void report(List<SimulatedClient> clients, long sent, double seconds) {
+        ParticleMetrics.Snapshot snapshot = ParticleMetrics.snapshot();
+        System.out.printf(Locale.ROOT, "%d packets in %.2fs: %.0f packets/s%n", sent, seconds, sent / seconds);
+        for (ParticleMetrics.Mode mode : ParticleMetrics.Mode.values()) {
+            long packets = snapshot.packets(mode);
+            long bytes = snapshot.bytes(mode);
+            System.out.printf(Locale.ROOT, "%-10s %10d packets %12d bytes %6.1f bytes/packet  encode p50 <%dns p99 <%dns%n",
+                mode.name().toLowerCase(Locale.ROOT),
+                packets,
+                bytes,
+                packets == 0 ? 0.0D : (double) bytes / packets,
+                snapshot.encodeQuantile(mode, 0.5D),
+                snapshot.encodeQuantile(mode, 0.99D));
+        }
+        Map<Boolean, long[]> byClass = new HashMap<>();
+        for (SimulatedClient client : clients) {
+            long[] totals = byClass.computeIfAbsent(client.expectLegacy, key -> new long[2]);
+            totals[0]++;
+            totals[1] += client.bytesReceived;
+        }
+        for (Map.Entry<Boolean, long[]> entry : byClass.entrySet()) {
+            long[] totals = entry.getValue();
+            System.out.printf(Locale.ROOT, "%s clients: %d connections, %d bytes, %.0f bytes/connection%n",
+                entry.getKey() ? "legacy" : "modern", totals[0], totals[1], (double) totals[1] / Math.max(1, totals[0]));
+        }
+    }
+
+    private record Profile(String brand, List<String> mods, boolean expectLegacy) {
+    }
+
+    private static final Profile[] LEGACY_PROFILES = {
+        new Profile("fabric", List.of("fabricloader", "fabric-api", "sodium", "lithium"), true),
+        new Profile("fabric", null, true),
+        new Profile("vanilla", List.of("fabric-networking-api-v1", "modmenu"), true)
+    };
+
+    private static final Profile[] MODERN_PROFILES = {
+        new Profile("vanilla", null, false),
+        new Profile("forge", List.of("forge", "jei"), false),
+        new Profile(null, null, false)
+    };
+
+    private static final class SimulatedClient implements ClientInfoHolder {
+        private final boolean expectLegacy;
+        private final ArrayDeque<ParticleSample> expected = new ArrayDeque<>();
+        private volatile ViaBrandTracker.ClientInfo info;
+        private EmbeddedChannel channel;
+        private DynamicRegistryManager registries;
+        private long bytesReceived;
+        private long mismatches;
+
+        private SimulatedClient(boolean expectLegacy) {
+            this.expectLegacy = expectLegacy;
+        }
+
+        @Override
+        public ViaBrandTracker.ClientInfo noviaversionkick$getClientInfo() {
+            return this.info;
+        }
+
+        @Override
+        public void noviaversionkick$setClientInfo(ViaBrandTracker.ClientInfo info) {
+            this.info = info;
+        }
+
+        @Override
+        public UUID noviaversionkick$getPlayerId() {
+            return null;
+        }
+
+        @Override
+        public void noviaversionkick$setPlayerId(UUID playerId) {
+        }
+
+        private void reset() {
+            this.bytesReceived = 0;
+            this.mismatches = 0;
+        }
+
+        private void verify() {
+            ByteBuf frame;
+            while ((frame = this.channel.readOutbound()) != null) {
+                try {
+                    this.bytesReceived += frame.readableBytes();
+                    ParticleSample sample = this.expected.pollFirst();
+                    RegistryByteBuf buf = new RegistryByteBuf(frame, this.registries);
+                    boolean matches = sample != null && (this.expectLegacy ? matchesLegacy(buf, sample) : matchesModern(buf, sample));
+                    if (!matches) {
+                        this.mismatches++;
+                    }
+                } catch (RuntimeException exception) {
+                    this.mismatches++;
+                } finally {
+                    frame.release();
+                }
+            }
+        }
+    }
+
+    private static boolean matchesModern(RegistryByteBuf buf, ParticleSample sample) {
+        ParticleS2CPacket decoded = ParticleS2CPacket.CODEC.decode(buf);
+        return !buf.isReadable()
+            && decoded.getParameters().getType() == sample.effect().getType()
+            && decoded.getX() == sample.x()
+            && decoded.getY() == sample.y()
+            && decoded.getZ() == sample.z()
+            && decoded.getCount() == sample.count();
+    }
+
+    private static boolean matchesLegacy(RegistryByteBuf buf, ParticleSample sample) {
+        ParticleRuleTable rules = ParticleRuleTable.get();
+        int typeId = Registries.PARTICLE_TYPE.getRawId(sample.effect().getType());
+        byte action = rules.action(typeId, sample.effect());
+        int expectedId = switch (action) {
+            case ParticleRuleTable.SUPPRESS -> rules.suppressFallbackId();
+            case ParticleRuleTable.REMAP -> rules.remapTargetId(typeId);
+            default -> typeId;
+        };
+        if (buf.readVarInt() != expectedId) {
+            return false;
+        }
+        buf.readBoolean();
+        double x = buf.readDouble();
+        double y = buf.readDouble();
+        double z = buf.readDouble();
+        buf.skipBytes(4 * Float.BYTES);
+        int count = buf.readInt();
+        if (action == ParticleRuleTable.SUPPRESS) {
+            return count == 0 && !buf.isReadable();
+        }
+        if (action != ParticleRuleTable.ALIGN && (x != sample.x() || y != sample.y() || z != sample.z())) {
+            return false;
+        }
+        ParticleEffect effect = ParticleTypes.PACKET_CODEC.decode(buf);
+        return count == sample.count() && Registries.PARTICLE_TYPE.getRawId(effect.getType()) == expectedId && !buf.isReadable();
+    }
+
+    /**
+     * The packet mixin's cache slots for one broadcast packet instance.
+     */
+    private static final class SharedPacket implements SharedParticleEncoding {
+        private final ParticleSample sample;
+        private final ParticleS2CPacket packet;
+        private final int typeId;
+        private volatile byte[] legacyBytes;
+        private volatile byte[] modernBytes;
+
+        private SharedPacket(ParticleSample sample) {
+            this.sample = sample;
+            this.packet = new ParticleS2CPacket(sample.effect(), sample.forceSpawn(), sample.packet().isImportant(), sample.x(), sample.y(), sample.z(),
+                sample.offsetX(), sample.offsetY(), sample.offsetZ(), sample.speed(), sample.count());
+            this.typeId = Registries.PARTICLE_TYPE.getRawId(sample.effect().getType());
+        }
+
+        @Override
+        public int noviaversionkick$typeId() {
+            return this.typeId;
+        }
+
+        @Override
+        public int noviaversionkick$count() {
+            return this.sample.count();
+        }
+
+        @Override
+        public byte[] noviaversionkick$cachedBytes(boolean legacy) {
+            return legacy ? this.legacyBytes : this.modernBytes;
+        }
+
+        @Override
+        public void noviaversionkick$cacheBytes(boolean legacy, byte[] bytes) {
+            if (legacy) {
+                this.legacyBytes = bytes;
+            } else {
+                this.modernBytes = bytes;
+            }
+        }
+
+        @Override
+        public void noviaversionkick$writeUncached(RegistryByteBuf buf, boolean legacy) {
+            ParticleSample sample = this.sample;
+            if (legacy) {
+                LegacyParticleEncoder.write(buf, sample.effect(), sample.forceSpawn(), sample.x(), sample.y(), sample.z(),
+                    sample.offsetX(), sample.offsetY(), sample.offsetZ(), sample.speed(), sample.count());
+            } else {
+                ParticleWriter.writeModern(buf, sample.effect(), sample.forceSpawn(), sample.packet().isImportant(), sample.x(), sample.y(), sample.z(),
+                    sample.offsetX(), sample.offsetY(), sample.offsetZ(), sample.speed(), sample.count());
+            }
+        }
+    }
+
+    /**
+     * Stands in for the packet's write hook: writes through {@link ParticleWriter} when a
+     * {@link LegacyEncodingHandler} published a legacy client for this write, and through the
+     * vanilla codec otherwise.
+     */
+    private static final class HarnessEncoder extends MessageToByteEncoder<ParticleS2CPacket> {
+        private final DynamicRegistryManager registries;
+
+        private HarnessEncoder(DynamicRegistryManager registries) {
+            super(ParticleS2CPacket.class);
+            this.registries = registries;
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext context, ParticleS2CPacket packet, ByteBuf out) {
+            RegistryByteBuf buf = new RegistryByteBuf(out, this.registries);
+            SharedPacket shared = sharedPackets.get(packet);
+            ClientInfoHolder client = EncodingContext.current();
+            if (client != null && ViaBrandTracker.shouldUseLegacyParticles(client)) {
+                ParticleWriter.write(shared, buf, client);
+                return;
+            }
+            int start = buf.writerIndex();
+            long startNanos = ParticleMetrics.isTimingEncoding() ? System.nanoTime() : 0L;
+            ParticleS2CPacket.CODEC.encode(buf, packet);
+            ParticleWriter.recordModernWrite(shared, buf.writerIndex() - start, startNanos);
+        }
+    }
+
+    private static final class Options {
+        private int connections = 2000;
+        private double legacyRatio = 0.25D;
+        private int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private int rounds = 200;
+        private long seed = 42L;
+
+        private static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected key=value but got " + arg);
+                }
+                String value = arg.substring(separator + 1);
+                switch (arg.substring(0, separator)) {
+                    case "connections" -> options.connections = Integer.parseInt(value);
+                    case "legacyRatio" -> options.legacyRatio = Double.parseDouble(value);
+                    case "threads" -> options.threads = Integer.parseInt(value);
+                    case "rounds" -> options.rounds = Integer.parseInt(value);
+                    case "seed" -> options.seed = Long.parseLong(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            options.threads = Math.max(1, options.threads);
+            return options;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package org.bacon.noviaversionkick.network;
+
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.registry.DynamicRegistryManager;
+import net.minecraft.registry.Registries;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Feeds a trace recorded by {@code /noviaversionkick capture} through the current encoders,
+ * reports every packet whose bytes differ from what the server sent and measures encoding
+ * throughput. Run with {@code ./gradlew replay -PreplayArgs="trace=path/to/particles.nvkp"};
+ * pass {@code config=path/to/noviaversionkick.json} to use the server's particle and
+ * classification rules instead of the defaults.
+ *
+ * <p>As in {@link ParticleLoadTest}, mixins are not applied, so each packet is written through
+ * the same encoders the packet's byte cache is filled with: {@link ParticleWriter#writeModern}
+ * for the modern format and {@link LegacyParticleEncoder} for the legacy one, both taking
+ * effect payloads from {@link EffectPayloadCache}. The capture encodes effects directly, so
+ * a difference in either format also shows a cache entry that disagrees with the codec. Each
+ * packet is replayed in the format its connection received when it was captured.
+ */
+public final class ParticleReplay {
+    private static final int SHOWN_DIFFERENCES = 10;
+    private static final int HEX_CONTEXT = 8;
+
+    private ParticleReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        DynamicRegistryManager registries = ParticleSample.bootstrap();
+        if (options.config != null) {
+            applyConfig(options.config);
+        }
+        Trace trace = Trace.read(options.trace, registries);
+        System.out.printf(Locale.ROOT, "%s: %d packets from %d connections over %.1fs%n",
+            options.trace.getFileName(), trace.packets.size(), trace.profiles.size(), trace.durationNanos() / 1.0E9D);
+        if (trace.particleTypes != Registries.PARTICLE_TYPE.size()) {
+            System.out.printf(Locale.ROOT, "WARNING: trace has %d particle types, this build %d; ids may not line up%n",
+                trace.particleTypes, Registries.PARTICLE_TYPE.size());
+        }
+
+        reportClassification(trace);
+        long differences = compare(trace, registries);
+        measure(trace, registries, options.iterations);
+        if (differences > 0) {
+            System.out.printf(Locale.ROOT, "FAILED: %d packets encoded differently from the capture%n", differences);
+            System.exit(1);
+        }
+        System.out.println("All packets encoded identically to the capture");
+    }
+
+    private static void applyConfig(Path path) throws IOException {
+        NoviaversionkickConfig config;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            config = new Gson().fromJson(reader, NoviaversionkickConfig.class);
+        }
+        if (config == null) {
+            throw new IOException("Empty configuration " + path);
+        }
+        ParticleRuleTable.rebuild(config.particleRules == null ? new NoviaversionkickConfig.ParticleRules() : config.particleRules);
+        ClassificationRules.rebuild(config.classification == null ? new NoviaversionkickConfig.Classification() : config.classification);
+        EffectPayloadCache.configure(config.effectCache == null ? new NoviaversionkickConfig.EffectCache() : config.effectCache);
+    }
+
+    /**
+     * Compares the decision the server made for each captured profile with the one the
+     * current rules make.
+     */
+    private static void reportClassification(Trace trace) {
+        int changed = 0;
+        for (Profile profile : trace.profiles) {
+            if (profile.capturedLegacy == null) {
+                continue;
+            }
+            ViaBrandTracker.ClientInfo info = ViaBrandTracker.ClientInfo.EMPTY.withClientMods(profile.mods).withBrand(profile.brand);
+            boolean legacy = info.legacyParticles();
+            if (legacy != profile.capturedLegacy) {
+                changed++;
+                System.out.printf(Locale.ROOT, "connection %d (brand '%s', %d mods) was %s, now %s%n",
+                    profile.connection, profile.brand, profile.mods.size(),
+                    profile.capturedLegacy ? "legacy" : "modern", legacy ? "legacy" : "modern");
+            }
+        }
+        System.out.printf(Locale.ROOT, "%d of %d captured profiles classify differently under the current rules%n", changed, trace.profiles.size());
+    }
+
+    private static long compare(Trace trace, DynamicRegistryManager registries) {
+        ByteBuf out = Unpooled.buffer();
+        Map<String, long[]> byType = new TreeMap<>();
+        long differences = 0;
+        try {
+            for (int index = 0; index < trace.packets.size(); index++) {
+                Captured captured = trace.packets.get(index);
+                byte[] expected = captured.legacyBytes != null ? captured.legacyBytes : captured.modernBytes;
+                byte[] actual = encode(captured, out, registries);
+                String type = Registries.PARTICLE_TYPE.getId(captured.sample.effect().getType()).toString();
+                long[] counts = byType.computeIfAbsent(type, key -> new long[2]);
+                counts[0]++;
+                if (Arrays.equals(expected, actual)) {
+                    continue;
+                }
+                counts[1]++;
+                if (differences++ < SHOWN_DIFFERENCES) {
+                    describeDifference(index, captured, type, expected, actual);
+                }
+            }
+        } finally {
+            out.release();
+        }
+        for (Map.Entry<String, long[]> entry : byType.entrySet()) {
+            long[] counts = entry.getValue();
+            System.out.printf(Locale.ROOT, "%-40s %10d packets %10d differ%n", entry.getKey(), counts[0], counts[1]);
+        }
+        return differences;
+    }
+
+    private static void describeDifference(int index, Captured captured, String type, byte[] expected, byte[] actual) {
+        int offset = Arrays.mismatch(expected, actual);
+        int from = Math.max(0, offset - HEX_CONTEXT);
+        System.out.printf(Locale.ROOT, "packet %d (%s, %s, connection %d): %d bytes captured, %d replayed, first difference at byte %d%n",
+            index, type, captured.legacyBytes != null ? "legacy" : "modern", captured.profile.connection, expected.length, actual.length, offset);
+        System.out.printf(Locale.ROOT, "  captured @%d %s%n", from, hex(expected, from));
+        System.out.printf(Locale.ROOT, "  replayed @%d %s%n", from, hex(actual, from));
+    }
+
+    private static String hex(byte[] bytes, int from) {
+        int to = Math.min(bytes.length, from + 2 * HEX_CONTEXT);
+        return from >= to ? "<end>" : ByteBufUtil.hexDump(bytes, from, to - from);
+    }
+
+    /**
+     * Encodes every packet {@code iterations} times into a reused buffer, recording the same
+     * metrics as the encode hook.
+     */
+    private static void measure(Trace trace, DynamicRegistryManager registries, int iterations) {
+        NoviaversionkickConfig.Metrics metrics = new NoviaversionkickConfig.Metrics();
+        metrics.timeEncoding = true;
+        ParticleMetrics.configure(metrics);
+        ByteBuf out = Unpooled.buffer();
+        try {
+            // Warm up before measuring
+            for (Captured captured : trace.packets) {
+                encode(captured, out, registries);
+            }
+            ParticleMetrics.reset();
+            long bytes = 0;
+            long start = System.nanoTime();
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                for (Captured captured : trace.packets) {
+                    long encodeStart = System.nanoTime();
+                    out.clear();
+                    ParticleMetrics.Mode mode = write(captured, new RegistryByteBuf(out, registries));
+                    int typeId = Registries.PARTICLE_TYPE.getRawId(captured.sample.effect().getType());
+                    ParticleMetrics.recordWrite(mode, typeId, out.readableBytes());
+                    ParticleMetrics.recordEncodeTime(mode, System.nanoTime() - encodeStart);
+                    bytes += out.readableBytes();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1.0E9D;
+            long packets = (long) iterations * trace.packets.size();
+            System.out.printf(Locale.ROOT, "%d packets in %.2fs: %.0f packets/s, %.1f MB/s%n",
+                packets, seconds, packets / seconds, bytes / seconds / (1024.0D * 1024.0D));
+            ParticleMetrics.Snapshot snapshot = ParticleMetrics.snapshot();
+            for (ParticleMetrics.Mode mode : ParticleMetrics.Mode.values()) {
+                long modePackets = snapshot.packets(mode);
+                if (modePackets == 0) {
+                    continue;
+                }
+                System.out.printf(Locale.ROOT, "%-10s %10d packets %6.1f bytes/packet  encode p50 <%dns p99 <%dns%n",
+                    mode.name().toLowerCase(Locale.ROOT),
+                    modePackets,
+                    (double) snapshot.bytes(mode) / modePackets,
+                    snapshot.encodeQuantile(mode, 0.5D),
+                    snapshot.encodeQuantile(mode, 0.99D));
+            }
+        } finally {
+            out.release();
+        }
+    }
+
+    private static byte[] encode(Captured captured, ByteBuf out, DynamicRegistryManager registries) {
+        out.clear();
+        write(captured, new RegistryByteBuf(out, registries));
+        return ByteBufUtil.getBytes(out);
+    }
+
+    private static ParticleMetrics.Mode write(Captured captured, RegistryByteBuf buf) {
+        ParticleSample sample = captured.sample;
+        if (captured.legacyBytes == null) {
+            ParticleWriter.writeModern(buf, sample.effect(), sample.forceSpawn(), captured.packet.isImportant(), sample.x(), sample.y(), sample.z(),
+                sample.offsetX(), sample.offsetY(), sample.offsetZ(), sample.speed(), sample.count());
+            return ParticleMetrics.Mode.MODERN;
+        }
+        LegacyParticleEncoder.write(buf, sample.effect(), sample.forceSpawn(), sample.x(), sample.y(), sample.z(),
+            sample.offsetX(), sample.offsetY(), sample.offsetZ(), sample.speed(), sample.count());
+        int typeId = Registries.PARTICLE_TYPE.getRawId(sample.effect().getType());
+        return ParticleRuleTable.get().action(typeId) == ParticleRuleTable.SUPPRESS ? ParticleMetrics.Mode.SUPPRESSED : ParticleMetrics.Mode.LEGACY;
+    }
+
+    private static final class Profile {
+        private final int connection;
+        private final String brand;
+        private final List<String> mods;
+        // Decision seen on this profile's first captured packet; null until then
+        private Boolean capturedLegacy;
+
+        private Profile(int connection, String brand, List<String> mods) {
+            this.connection = connection;
+            this.brand = brand;
+            this.mods = mods;
+        }
+    }
+
+    private record Captured(Profile profile, long nanos, ParticleS2CPacket packet, ParticleSample sample, byte[] modernBytes, byte[] legacyBytes) {
+    }
+
+    private static final class Trace {
+        private final List<Profile> profiles = new ArrayList<>();
+        private final List<Captured> packets = new ArrayList<>();
+        private int particleTypes;
+
+        private long durationNanos() {
+            return this.packets.isEmpty() ? 0L : this.packets.get(this.packets.size() - 1).nanos;
+        }
+
+        private static Trace read(Path path, DynamicRegistryManager registries) throws IOException {
+            Trace trace = new Trace();
+            Map<Integer, Profile> current = new HashMap<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path)), 1 << 16))) {
+                if (in.readInt() != ParticleCapture.MAGIC || in.readInt() != ParticleCapture.VERSION) {
+                    throw new IOException(path + " is not a particle capture of a supported version");
+                }
+                in.readLong();
+                trace.particleTypes = in.readInt();
+                while (true) {
+                    int tag;
+                    try {
+                        tag = in.readByte();
+                    } catch (EOFException exception) {
+                        break;
+                    }
+                    if (tag == ParticleCapture.CONNECTION_RECORD) {
+                        int connection = in.readInt();
+                        String brand = in.readBoolean() ? in.readUTF() : null;
+                        int modCount = in.readInt();
+                        List<String> mods = new ArrayList<>(modCount);
+                        for (int i = 0; i < modCount; i++) {
+                            mods.add(in.readUTF());
+                        }
+                        Profile profile = new Profile(connection, brand, mods);
+                        trace.profiles.add(profile);
+                        current.put(connection, profile);
+                    } else if (tag == ParticleCapture.PACKET_RECORD) {
+                        Profile profile = current.get(in.readInt());
+                        long nanos = in.readLong();
+                        boolean legacy = in.readBoolean();
+                        byte[] modern = readBytes(in);
+                        byte[] legacyBytes = legacy ? readBytes(in) : null;
+                        if (profile == null) {
+                            throw new IOException("Packet record before its connection record in " + path);
+                        }
+                        if (profile.capturedLegacy == null) {
+                            profile.capturedLegacy = legacy;
+                        }
+                        trace.packets.add(decode(profile, nanos, modern, legacyBytes, registries));
+                    } else {
+                        throw new IOException("Unknown record " + tag + " in " + path);
+                    }
+                }
+            }
+            return trace;
+        }
+
+        private static Captured decode(Profile profile, long nanos, byte[] modern, byte[] legacyBytes, DynamicRegistryManager registries) {
+            ByteBuf buf = Unpooled.wrappedBuffer(modern);
+            try {
+                ParticleS2CPacket packet = ParticleS2CPacket.CODEC.decode(new RegistryByteBuf(buf, registries));
+                ParticleSample sample = ParticleSample.of(packet.getParameters(), packet.shouldForceSpawn(), packet.getX(), packet.getY(), packet.getZ(),
+                    packet.getOffsetX(), packet.getOffsetY(), packet.getOffsetZ(), packet.getSpeed(), packet.getCount());
+                return new Captured(profile, nanos, packet, sample, modern, legacyBytes);
+            } finally {
+                buf.release();
+            }
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    private static final class Options {
+        private Path trace;
+        private Path config;
+        private int iterations = 5;
+
+        private static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected key=value but got " + arg);
+                }
+                String value = arg.substring(separator + 1);
+                switch (arg.substring(0, separator)) {
+                    case "trace" -> options.trace = Path.of(value);
+                    case "config" -> options.config = Path.of(value);
+                    case "iterations" -> options.iterations = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (options.trace == null) {
+                throw new IllegalArgumentException("Missing trace=<file>");
+            }
+            options.iterations = Math.max(1, options.iterations);
+            return options;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package org.bacon.noviaversionkick;
 
+import com.mojang.authlib.GameProfile;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerConfigurationConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerLoginConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerLoginNetworking;
-import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.fabricmc.fabric.api.networking.v1.PacketSender;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.network.ClientConnection;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.server.MinecraftServer;
@@ -11,14 +17,25 @@ import net.minecraft.server.network.ServerLoginNetworkHandler;
 import net.minecraft.util.Identifier;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.command.NoviaversionkickCommand;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.metrics.MetricsSnapshotWriter;
+import org.bacon.noviaversionkick.metrics.ModListParseEvent;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+import org.bacon.noviaversionkick.mixin.ServerCommonNetworkHandlerAccessor;
 import org.bacon.noviaversionkick.mixin.ServerLoginNetworkHandlerAccessor;
+import org.bacon.noviaversionkick.network.ClassificationCache;
+import org.bacon.noviaversionkick.network.ClassificationRules;
+import org.bacon.noviaversionkick.network.ConnectionTrace;
+import org.bacon.noviaversionkick.network.EffectPayloadCache;
+import org.bacon.noviaversionkick.network.ModListParser;
+import org.bacon.noviaversionkick.network.ParticleCapture;
+import org.bacon.noviaversionkick.network.ParticleRuleTable;
+import org.bacon.noviaversionkick.network.ParticleSendFilter;
+import org.bacon.noviaversionkick.network.TrackedConnections;
 import org.bacon.noviaversionkick.network.ViaBrandTracker;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 public class Noviaversionkick implements ModInitializer {
     private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
@@ -29,6 +46,51 @@ public class Noviaversionkick implements ModInitializer {
     public void onInitialize() {
         registerFabricModListReceiver(FABRIC_MOD_LIST_CHANNEL);
         registerFabricModListReceiver(FABRIC_MODLIST_LEGACY_CHANNEL);
+        ServerLifecycleEvents.SERVER_STARTING.register(Noviaversionkick::reloadConfig);
+        ServerLifecycleEvents.END_DATA_PACK_RELOAD.register((server, resourceManager, success) -> reloadConfig(server));
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> ParticleSendFilter.setServerThread(server.getThread()));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            ParticleSendFilter.setServerThread(null);
+            MetricsSnapshotWriter.stop();
+            ClassificationCache.stop();
+            ParticleCapture.stop();
+        });
+        ServerLoginConnectionEvents.QUERY_START.register((handler, server, sender, synchronizer) -> {
+            ServerLoginNetworkHandlerAccessor accessor = (ServerLoginNetworkHandlerAccessor) handler;
+            TrackedConnections.onLogin(accessor.noviaversionkick$getConnection());
+            GameProfile profile = accessor.noviaversionkick$getProfile();
+            if (profile != null) {
+                ViaBrandTracker.onLoginProfile(accessor.noviaversionkick$getConnection(), profile.id());
+            }
+        });
+        // Released here rather than when the connection is garbage collected
+        ServerLoginConnectionEvents.DISCONNECT.register((handler, server) ->
+            TrackedConnections.onDisconnect(((ServerLoginNetworkHandlerAccessor) handler).noviaversionkick$getConnection()));
+        ServerConfigurationConnectionEvents.DISCONNECT.register((handler, server) ->
+            TrackedConnections.onDisconnect(((ServerCommonNetworkHandlerAccessor) handler).noviaversionkick$getConnection()));
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) ->
+            TrackedConnections.onJoin(((ServerCommonNetworkHandlerAccessor) handler).noviaversionkick$getConnection()));
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) ->
+            TrackedConnections.onDisconnect(((ServerCommonNetworkHandlerAccessor) handler).noviaversionkick$getConnection()));
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> NoviaversionkickCommand.register(dispatcher));
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            ParticleSendFilter.flushTick();
+            TrackedConnections.tick();
+            ViaBrandTracker.reclassifyTick(NoviaversionkickConfig.get().classification.reclassifyPerTick);
+        });
+    }
+
+    private static void reloadConfig(MinecraftServer server) {
+        NoviaversionkickConfig config = NoviaversionkickConfig.load();
+        ClassificationRules.rebuild(config.classification);
+        ViaBrandTracker.onRulesChanged(server);
+        ParticleRuleTable.rebuild(config.particleRules);
+        ParticleMetrics.configure(config.metrics);
+        MetricsSnapshotWriter.start(config.metrics);
+        ClassificationCache.configure(config.classificationCache);
+        EffectPayloadCache.configure(config.effectCache);
+        ConnectionTrace.configure(config.trace);
+        TrackedConnections.configure(config.tracking);
     }
 
     private static void registerFabricModListReceiver(Identifier channel) {
@@ -41,78 +103,36 @@ public class Noviaversionkick implements ModInitializer {
                 return;
             }
 
-            PacketByteBuf duplicate = PacketByteBufs.copy(buf);
+            ModListParseEvent event = new ModListParseEvent();
+            event.begin();
+            int payloadBytes = buf.readableBytes();
             try {
-                List<String> modIds = parseModListPayload(duplicate);
+                List<String> modIds = ModListParser.parse(buf);
+                event.end();
+                commitParse(event, channel, connection, payloadBytes, modIds.size());
                 if (modIds.isEmpty()) {
-                    LOGGER.debug("Received empty or unparseable Fabric mod list from {} on channel {}", describeConnection(connection), channel);
+                    LOGGER.debug("Received empty, unparseable or oversized Fabric mod list from {} on channel {}", describeConnection(connection), channel);
                     ViaBrandTracker.setClientModList(connection, null);
                     return;
                 }
                 ViaBrandTracker.setClientModList(connection, modIds);
-            } catch (Throwable throwable) {
-                LOGGER.error("Failed to parse Fabric mod list payload from {} on channel {}", describeConnection(connection), channel, throwable);
+            } catch (RuntimeException exception) {
+                LOGGER.error("Failed to parse Fabric mod list payload from {} on channel {}", describeConnection(connection), channel, exception);
                 ViaBrandTracker.setClientModList(connection, null);
-            } finally {
-                duplicate.release();
             }
         });
     }
 
-    private static List<String> parseModListPayload(PacketByteBuf buf) {
-        List<String> modIds = new ArrayList<>();
-        buf.markReaderIndex();
-        try {
-            int handshakeVersion = buf.readVarInt();
-            if (handshakeVersion >= 0 && handshakeVersion <= 5) {
-                int modCount = buf.readVarInt();
-                for (int i = 0; i < modCount; i++) {
-                    String modId = buf.readString(Short.MAX_VALUE).trim();
-                    if (buf.isReadable()) {
-                        buf.readString(Short.MAX_VALUE);
-                    }
-                    if (!modId.isEmpty()) {
-                        modIds.add(modId.toLowerCase(Locale.ROOT));
-                    }
-                }
-                if (!modIds.isEmpty()) {
-                    return modIds;
-                }
-            }
-        } catch (Throwable ignored) {
-        }
-        buf.resetReaderIndex();
-
-        try {
-            int modCount = buf.readVarInt();
-            for (int i = 0; i < modCount; i++) {
-                String modId = buf.readString(Short.MAX_VALUE).trim();
-                if (!modId.isEmpty()) {
-                    modIds.add(modId.toLowerCase(Locale.ROOT));
-                }
-            }
-            if (!modIds.isEmpty()) {
-                return modIds;
-            }
-        } catch (Throwable ignored) {
-        }
-        buf.resetReaderIndex();
-
-        try {
-            Set<String> deduplicated = new HashSet<>();
-            while (buf.isReadable()) {
-                String modId = buf.readString(Short.MAX_VALUE).trim();
-                if (modId.isEmpty()) {
-                    break;
-                }
-                deduplicated.add(modId.toLowerCase(Locale.ROOT));
-            }
-            if (!deduplicated.isEmpty()) {
-                modIds.addAll(deduplicated);
-            }
-        } catch (Throwable ignored) {
+    private static void commitParse(ModListParseEvent event, Identifier channel, ClientConnection connection, int payloadBytes, int mods) {
+        if (!event.shouldCommit()) {
+            return;
         }
-        return modIds;
+        event.channel = channel.toString();
+        event.address = describeConnection(connection);
+        event.payloadBytes = payloadBytes;
+        event.mods = mods;
+        event.parsed = mods > 0;
+        event.commit();
     }
 
     private static String describeConnection(ClientConnection connection) {
@@ -0,0 +1,209 @@
+package org.bacon.noviaversionkick.command;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.command.argument.EntityArgumentType;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.Text;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+import org.bacon.noviaversionkick.mixin.ServerCommonNetworkHandlerAccessor;
+import org.bacon.noviaversionkick.network.ConnectionTrace;
+import org.bacon.noviaversionkick.network.ConnectionTraceHolder;
+import org.bacon.noviaversionkick.network.EffectPayloadCache;
+import org.bacon.noviaversionkick.network.ParticleCapture;
+import org.bacon.noviaversionkick.network.TrackedConnections;
+import org.bacon.noviaversionkick.network.ViaBrandTracker;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Operator commands under {@code /noviaversionkick}.
+ */
+public final class NoviaversionkickCommand {
+    private static final int TOP_TYPES = 5;
+
+    private NoviaversionkickCommand() {
+    }
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(CommandManager.literal("noviaversionkick")
+            .requires(source -> source.hasPermissionLevel(2))
+            .then(CommandManager.literal("stats")
+                .executes(NoviaversionkickCommand::showStats)
+                .then(CommandManager.literal("reset")
+                    .executes(NoviaversionkickCommand::resetStats)))
+            .then(CommandManager.literal("trace")
+                .then(CommandManager.argument("player", EntityArgumentType.player())
+                    .executes(NoviaversionkickCommand::showTrace)))
+            .then(CommandManager.literal("capture")
+                .then(CommandManager.literal("start")
+                    .then(CommandManager.argument("players", EntityArgumentType.players())
+                        .executes(NoviaversionkickCommand::startCapture)))
+                .then(CommandManager.literal("stop")
+                    .executes(NoviaversionkickCommand::stopCapture))
+                .then(CommandManager.literal("status")
+                    .executes(NoviaversionkickCommand::showCapture)))
+            .then(CommandManager.literal("memory")
+                .executes(NoviaversionkickCommand::showMemory)));
+    }
+
+    private static int showStats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        ParticleMetrics.Snapshot snapshot = ParticleMetrics.snapshot();
+        if (!ParticleMetrics.isEnabled()) {
+            source.sendFeedback(() -> Text.literal("Particle metrics are disabled in the configuration"), false);
+        }
+        for (ParticleMetrics.Mode mode : ParticleMetrics.Mode.values()) {
+            String line = String.format(
+                Locale.ROOT,
+                "%s: %d packets, %d bytes, encode p50 %s, p99 %s",
+                mode.name().toLowerCase(Locale.ROOT),
+                snapshot.packets(mode),
+                snapshot.bytes(mode),
+                describeNanos(snapshot.encodeQuantile(mode, 0.5D)),
+                describeNanos(snapshot.encodeQuantile(mode, 0.99D))
+            );
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        for (ParticleMetrics.FilterEvent event : ParticleMetrics.FilterEvent.values()) {
+            long legacy = snapshot.filter(event, true);
+            long modern = snapshot.filter(event, false);
+            if (legacy == 0 && modern == 0) {
+                continue;
+            }
+            String line = String.format(Locale.ROOT, "%s: legacy %d, modern %d", event.name().toLowerCase(Locale.ROOT), legacy, modern);
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        StringBuilder top = new StringBuilder("Top particle types:");
+        for (int typeId : snapshot.topTypes(TOP_TYPES)) {
+            top.append(' ').append(ParticleMetrics.Snapshot.typeName(typeId)).append('=').append(snapshot.typePackets(typeId));
+        }
+        source.sendFeedback(() -> Text.literal(top.toString()), false);
+        long hits = EffectPayloadCache.hits();
+        long misses = EffectPayloadCache.misses();
+        String cache = String.format(
+            Locale.ROOT,
+            "Effect cache: %d hits, %d misses (%.1f%% hit rate), %d uncacheable",
+            hits,
+            misses,
+            hits + misses == 0 ? 0.0D : 100.0D * hits / (hits + misses),
+            EffectPayloadCache.uncached()
+        );
+        source.sendFeedback(() -> Text.literal(cache), false);
+        return 1;
+    }
+
+    private static int resetStats(CommandContext<ServerCommandSource> context) {
+        ParticleMetrics.reset();
+        EffectPayloadCache.resetStatistics();
+        context.getSource().sendFeedback(() -> Text.literal("Particle metrics reset"), true);
+        return 1;
+    }
+
+    private static int showTrace(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        ServerPlayerEntity player = EntityArgumentType.getPlayer(context, "player");
+        ClientConnection connection = ((ServerCommonNetworkHandlerAccessor) player.networkHandler).noviaversionkick$getConnection();
+        String name = player.getNameForScoreboard();
+        if (!ConnectionTrace.isEnabled()) {
+            source.sendFeedback(() -> Text.literal("Connection tracing is disabled in the configuration"), false);
+        }
+        String header = String.format(
+            Locale.ROOT,
+            "Trace for %s (currently %s particles):",
+            name,
+            ViaBrandTracker.shouldUseLegacyParticles(connection) ? "legacy" : "modern"
+        );
+        source.sendFeedback(() -> Text.literal(header), false);
+        List<String> lines = ((ConnectionTraceHolder) connection).noviaversionkick$getTrace().dump();
+        if (lines.isEmpty()) {
+            source.sendFeedback(() -> Text.literal("No events recorded"), false);
+        }
+        for (String line : lines) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return lines.size();
+    }
+
+    private static int startCapture(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        Collection<ServerPlayerEntity> players = EntityArgumentType.getPlayers(context, "players");
+        List<ClientConnection> connections = new ArrayList<>(players.size());
+        for (ServerPlayerEntity player : players) {
+            connections.add(((ServerCommonNetworkHandlerAccessor) player.networkHandler).noviaversionkick$getConnection());
+        }
+        Path path;
+        try {
+            path = ParticleCapture.start(connections, source.getServer().getRegistryManager(), NoviaversionkickConfig.get().capture);
+        } catch (IOException exception) {
+            source.sendError(Text.literal("Could not start particle capture: " + exception.getMessage()));
+            return 0;
+        }
+        if (path == null) {
+            source.sendError(Text.literal("A particle capture is already running"));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.literal("Capturing particles of " + connections.size() + " players to " + path.getFileName()), true);
+        return connections.size();
+    }
+
+    private static int stopCapture(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String summary = ParticleCapture.stop();
+        if (summary == null) {
+            source.sendError(Text.literal("No particle capture is running"));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.literal("Particle capture stopped: " + summary), true);
+        return 1;
+    }
+
+    private static int showCapture(CommandContext<ServerCommandSource> context) {
+        String status = ParticleCapture.status();
+        context.getSource().sendFeedback(() -> Text.literal(status == null ? "No particle capture is running" : "Capturing " + status), false);
+        return status == null ? 0 : 1;
+    }
+
+    private static int showMemory(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        TrackedConnections.Report report = TrackedConnections.report();
+        String connections = String.format(
+            Locale.ROOT,
+            "Tracking %d of at most %d connections (%d logging in); %d released on disconnect, %d evicted",
+            report.tracked(),
+            report.maxConnections(),
+            report.pending(),
+            report.released(),
+            report.evicted()
+        );
+        String memory = String.format(
+            Locale.ROOT,
+            "Approximate heap: %s per-connection state, %s in %d shared client profiles; %d mod ids pooled",
+            describeBytes(report.connectionBytes()),
+            describeBytes(report.sharedProfileBytes()),
+            report.sharedProfiles(),
+            report.modIds()
+        );
+        source.sendFeedback(() -> Text.literal(connections), false);
+        source.sendFeedback(() -> Text.literal(memory), false);
+        return report.tracked();
+    }
+
+    private static String describeBytes(long bytes) {
+        return bytes < 1024L ? bytes + " B" : String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0D);
+    }
+
+    private static String describeNanos(long nanos) {
+        return nanos < 0 ? "n/a" : "<" + nanos + "ns";
+    }
+}
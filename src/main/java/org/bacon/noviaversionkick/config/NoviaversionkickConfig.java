@@ -0,0 +1,394 @@
+package org.bacon.noviaversionkick.config;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import net.fabricmc.loader.api.FabricLoader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operator configuration, read from {@code config/noviaversionkick.json}. Missing files are
+ * written out with the defaults so that every option is discoverable.
+ */
+public final class NoviaversionkickConfig {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final String FILE_NAME = "noviaversionkick.json";
+    private static volatile NoviaversionkickConfig current = new NoviaversionkickConfig();
+
+    public ParticleRules particleRules = new ParticleRules();
+    public Backpressure backpressure = new Backpressure();
+    public Coalescing coalescing = new Coalescing();
+    public Bundling bundling = new Bundling();
+    public Culling culling = new Culling();
+    public Metrics metrics = new Metrics();
+    public EffectCache effectCache = new EffectCache();
+    public Classification classification = new Classification();
+    public ClassificationCache classificationCache = new ClassificationCache();
+    public HoldQueue holdQueue = new HoldQueue();
+    public Trace trace = new Trace();
+    public Capture capture = new Capture();
+    public Tracking tracking = new Tracking();
+
+    public static NoviaversionkickConfig get() {
+        return current;
+    }
+
+    public static NoviaversionkickConfig load() {
+        Path path = FabricLoader.getInstance().getConfigDir().resolve(FILE_NAME);
+        NoviaversionkickConfig config = null;
+        if (Files.isRegularFile(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                config = GSON.fromJson(reader, NoviaversionkickConfig.class);
+            } catch (IOException | JsonParseException exception) {
+                LOGGER.error("Failed to read {}; keeping the previous configuration", path, exception);
+                return current;
+            }
+        }
+        if (config == null) {
+            config = new NoviaversionkickConfig();
+        }
+        config.fillDefaults();
+        try {
+            Files.createDirectories(path.getParent());
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                GSON.toJson(config, writer);
+            }
+        } catch (IOException exception) {
+            LOGGER.warn("Failed to write {}", path, exception);
+        }
+        current = config;
+        return config;
+    }
+
+    private void fillDefaults() {
+        if (this.particleRules == null) {
+            this.particleRules = new ParticleRules();
+        }
+        this.particleRules.fillDefaults();
+        if (this.backpressure == null) {
+            this.backpressure = new Backpressure();
+        }
+        this.backpressure.fillDefaults();
+        if (this.coalescing == null) {
+            this.coalescing = new Coalescing();
+        }
+        if (this.bundling == null) {
+            this.bundling = new Bundling();
+        }
+        if (this.culling == null) {
+            this.culling = new Culling();
+        }
+        this.culling.fillDefaults();
+        if (this.metrics == null) {
+            this.metrics = new Metrics();
+        }
+        if (this.effectCache == null) {
+            this.effectCache = new EffectCache();
+        }
+        if (this.classification == null) {
+            this.classification = new Classification();
+        }
+        this.classification.fillDefaults();
+        if (this.classificationCache == null) {
+            this.classificationCache = new ClassificationCache();
+        }
+        if (this.holdQueue == null) {
+            this.holdQueue = new HoldQueue();
+        }
+        if (this.trace == null) {
+            this.trace = new Trace();
+        }
+        if (this.tracking == null) {
+            this.tracking = new Tracking();
+        }
+        if (this.capture == null) {
+            this.capture = new Capture();
+        }
+        if (this.capture.directory == null || this.capture.directory.isBlank()) {
+            this.capture.directory = "noviaversionkick-captures";
+        }
+    }
+
+    /**
+     * Per particle type rules applied when writing the legacy format. Patterns are either a
+     * full id ({@code minecraft:poof}) or a path ({@code falling_*}) matching any namespace;
+     * a trailing {@code *} turns the pattern into a prefix match.
+     */
+    public static final class ParticleRules {
+        public List<String> suppress = new ArrayList<>(List.of("falling_*"));
+        public String suppressFallback = "minecraft:poof";
+        public Map<String, String> remap = new LinkedHashMap<>();
+        /** Types aligned to the nearest block face, in addition to block state effects when enabled below. */
+        public List<String> alignToBlockFace = new ArrayList<>(List.of("minecraft:block", "minecraft:block_marker", "minecraft:block_crumble", "minecraft:dust_pillar"));
+        /** Aligns every block state effect, including modded ones, unless another rule applies to its type. */
+        public boolean alignBlockStateEffects = true;
+
+        private void fillDefaults() {
+            if (this.suppress == null) {
+                this.suppress = new ArrayList<>();
+            }
+            if (this.suppressFallback == null) {
+                this.suppressFallback = "minecraft:poof";
+            }
+            if (this.remap == null) {
+                this.remap = new LinkedHashMap<>();
+            }
+            if (this.alignToBlockFace == null) {
+                this.alignToBlockFace = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Particle thinning for connections whose outbound buffer is backing up. Pressure is the
+     * number of bytes queued on the channel as a fraction of its write buffer high water mark.
+     */
+    public static final class Backpressure {
+        public boolean enabled = false;
+        public Thinning legacy = new Thinning();
+        public Thinning modern = new Thinning();
+
+        private void fillDefaults() {
+            if (this.legacy == null) {
+                this.legacy = new Thinning();
+            }
+            if (this.modern == null) {
+                this.modern = new Thinning();
+            }
+        }
+    }
+
+    public static final class Thinning {
+        /** Pressure at which particle counts start being reduced. */
+        public double thinStart = 0.5D;
+        /** Pressure at which particle packets are dropped; unwritable channels always drop. */
+        public double dropAt = 1.0D;
+        /** Smallest fraction of the original count kept while thinning. */
+        public double minCountScale = 0.1D;
+    }
+
+    /**
+     * Merges identical particle packets sent to one connection within a tick into a single
+     * packet with the summed count, flushed at the end of the tick.
+     */
+    public static final class Coalescing {
+        public boolean enabled = false;
+        /** Edge length, in blocks, of the cells positions are quantised to before comparing. */
+        public double positionQuantum = 0.25D;
+        /** Distinct packets buffered per connection per tick before new ones bypass the buffer. */
+        public int maxEntriesPerTick = 512;
+    }
+
+    /**
+     * Gathers the particle packets sent to one connection during a tick into a single bundle
+     * flushed once at the end of the tick. The bundle is still written as one frame per packet
+     * plus two delimiters.
+     */
+    public static final class Bundling {
+        public boolean enabled = false;
+        /** Packets gathered before the bundle is sent early; at most 4096. */
+        public int maxPacketsPerBundle = 512;
+    }
+
+    /**
+     * Per-recipient level of detail for particles, based on the distance from the player's
+     * eyes and whether the particle is behind the camera.
+     */
+    public static final class Culling {
+        public boolean enabled = false;
+        public CullingProfile legacy = new CullingProfile();
+        public CullingProfile modern = new CullingProfile();
+
+        private void fillDefaults() {
+            if (this.legacy == null) {
+                this.legacy = new CullingProfile();
+            }
+            if (this.modern == null) {
+                this.modern = new CullingProfile();
+            }
+            this.legacy.fillDefaults();
+            this.modern.fillDefaults();
+        }
+    }
+
+    public static final class CullingProfile {
+        /** Bands in ascending distance; particles beyond the last band are dropped. */
+        public List<DistanceBand> bands = new ArrayList<>(List.of(
+            new DistanceBand(32.0D, 1.0D),
+            new DistanceBand(64.0D, 0.5D),
+            new DistanceBand(512.0D, 0.25D)
+        ));
+        /** Extra count scale for particles behind the camera. */
+        public double behindScale = 0.5D;
+        /** Particles closer than this are never treated as behind the camera. */
+        public double behindMinDistance = 8.0D;
+
+        private void fillDefaults() {
+            if (this.bands == null) {
+                this.bands = new ArrayList<>();
+            }
+        }
+    }
+
+    public static final class DistanceBand {
+        public double maxDistance;
+        public double countScale;
+
+        public DistanceBand() {
+        }
+
+        public DistanceBand(double maxDistance, double countScale) {
+            this.maxDistance = maxDistance;
+            this.countScale = countScale;
+        }
+    }
+
+    /**
+     * Counters exposed through {@code /noviaversionkick stats} and a periodic JSON snapshot.
+     */
+    public static final class Metrics {
+        public boolean enabled = true;
+        /** Records per-write encode times; costs two clock reads per particle packet. */
+        public boolean timeEncoding = false;
+        /** Seconds between snapshot writes, or zero to disable the snapshot file. */
+        public int snapshotIntervalSeconds = 60;
+        /** Snapshot path, relative to the server directory. */
+        public String snapshotFile = "noviaversionkick-stats.json";
+    }
+
+    /**
+     * Encoded payloads of parameterless and block state particle effects, shared by the legacy
+     * and modern writers.
+     */
+    public static final class EffectCache {
+        public boolean enabled = true;
+        /** Table slots, rounded up to a power of two; colliding effects replace each other. */
+        public int capacity = 1024;
+    }
+
+    /**
+     * Decides which clients receive the legacy particle format from their brand and mod list.
+     * The first matching rule wins; a rule matches when any of its brand patterns and any of
+     * its mod patterns match, and a rule without patterns of one kind ignores that input.
+     */
+    public static final class Classification {
+        /** At most 63 rules are used. */
+        public List<ClassificationRule> rules = new ArrayList<>(List.of(
+            new ClassificationRule(List.of("fabric"), List.of(), "legacy"),
+            new ClassificationRule(List.of(), List.of("fabric"), "legacy")
+        ));
+        /** Encoding for clients no rule matches: {@code legacy} or {@code modern}. */
+        public String defaultEncoding = "modern";
+        /** Live connections re-evaluated per tick after the rules change. */
+        public int reclassifyPerTick = 32;
+
+        private void fillDefaults() {
+            if (this.rules == null) {
+                this.rules = new ArrayList<>();
+            }
+            if (this.defaultEncoding == null) {
+                this.defaultEncoding = "modern";
+            }
+        }
+    }
+
+    public static final class ClassificationRule {
+        /** Case-insensitive substrings of the brand. */
+        public List<String> brandContains = new ArrayList<>();
+        /** Substrings of reported mod ids. */
+        public List<String> modIdContains = new ArrayList<>();
+        /** Exact reported mod ids. */
+        public List<String> modIds = new ArrayList<>();
+        /** {@code legacy} or {@code modern}. */
+        public String encoding = "legacy";
+
+        public ClassificationRule() {
+        }
+
+        public ClassificationRule(List<String> brandContains, List<String> modIdContains, String encoding) {
+            this.brandContains = new ArrayList<>(brandContains);
+            this.modIdContains = new ArrayList<>(modIdContains);
+            this.encoding = encoding;
+        }
+    }
+
+    /**
+     * Remembers the particle encoding chosen for each player so that returning players get
+     * the right encoding before their brand and mod list have been received again.
+     */
+    public static final class ClassificationCache {
+        public boolean enabled = true;
+        /** Entries not refreshed for this many days are forgotten. */
+        public int maxAgeDays = 30;
+        /** Cache path, relative to the server directory. */
+        public String file = "noviaversionkick-classifications.bin";
+    }
+
+    /**
+     * Holds particle packets for players whose client has not been classified yet, so that
+     * they are released in the right encoding instead of being sent as modern packets.
+     */
+    public static final class HoldQueue {
+        public boolean enabled = false;
+        /** Ticks to wait for a classification before releasing held packets as they are. */
+        public int timeoutTicks = 40;
+        /** Packets held for a single connection. */
+        public int maxPacketsPerConnection = 256;
+        /** Packets held across all connections. */
+        public int maxPacketsTotal = 8192;
+        /**
+         * When a cap is reached, evict an older held packet instead of dropping the new one: the
+         * connection's own oldest packet for the per-connection cap, otherwise the oldest packet
+         * of the connection that has been held the longest.
+         */
+        public boolean dropOldest = true;
+    }
+
+    /**
+     * Per-connection record of classification inputs, decisions and, optionally, legacy writes,
+     * shown by {@code /noviaversionkick trace <player>}.
+     */
+    public static final class Trace {
+        public boolean enabled = true;
+        /** Classification events kept per connection; older ones are overwritten. */
+        public int capacity = 64;
+        /** Also record legacy and suppressed writes; costs a lock and a clock read per legacy packet. */
+        public boolean recordWrites = false;
+        /** Write events kept per connection, in their own ring; repeated writes of one type share an event. */
+        public int writeCapacity = 64;
+    }
+
+    /**
+     * Bounds the connections per-connection state is kept for, shown by
+     * {@code /noviaversionkick memory}.
+     */
+    public static final class Tracking {
+        /** Tracked connections; beyond this, connections still logging in lose their particle state and trace, oldest first. */
+        public int maxConnections = 4096;
+    }
+
+    /**
+     * Particle traces recorded by {@code /noviaversionkick capture} for offline replay.
+     */
+    public static final class Capture {
+        /** Trace directory, relative to the server directory. */
+        public String directory = "noviaversionkick-captures";
+        /** Packets recorded before further packets are dropped. */
+        public long maxPackets = 1_000_000L;
+        /** Packets waiting to be written before further packets are dropped. */
+        public int queueCapacity = 65536;
+    }
+}
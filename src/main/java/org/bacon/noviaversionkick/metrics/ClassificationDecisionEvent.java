@@ -0,0 +1,31 @@
+package org.bacon.noviaversionkick.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A connection switching between the legacy and modern particle encodings.
+ */
+@Name("noviaversionkick.ClassificationDecision")
+@Label("Client Classification Decision")
+@Category({"Noviaversionkick", "Classification"})
+@Description("Particle encoding chosen for a connection")
+@StackTrace(false)
+public final class ClassificationDecisionEvent extends jdk.jfr.Event {
+    @Label("Remote Address")
+    public String address;
+
+    @Label("Legacy Particles")
+    public boolean legacy;
+
+    @Label("Matched Rule")
+    @Description("Index of the classification rule that decided, or -1 for the default")
+    public int rule;
+
+    @Label("Presumed")
+    @Description("Taken from the classification cache rather than reported by the client")
+    public boolean presumed;
+}
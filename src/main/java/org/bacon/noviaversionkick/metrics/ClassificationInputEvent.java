@@ -0,0 +1,32 @@
+package org.bacon.noviaversionkick.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A brand or mod list received from a client and the decision it led to.
+ */
+@Name("noviaversionkick.ClassificationInput")
+@Label("Client Classification Input")
+@Category({"Noviaversionkick", "Classification"})
+@Description("Processing of a client brand or mod list")
+@Threshold("0 ms")
+public final class ClassificationInputEvent extends jdk.jfr.Event {
+    @Label("Input")
+    public String input;
+
+    @Label("Remote Address")
+    public String address;
+
+    @Label("Brand")
+    public String brand;
+
+    @Label("Mod Count")
+    public int modCount;
+
+    @Label("Legacy Particles")
+    public boolean legacy;
+}
@@ -0,0 +1,72 @@
+package org.bacon.noviaversionkick.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import net.fabricmc.loader.api.FabricLoader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.network.EffectPayloadCache;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a {@link ParticleMetrics} snapshot as JSON from a background thread so
+ * that the server thread never pays for serialisation or disk access.
+ */
+public final class MetricsSnapshotWriter {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static ScheduledExecutorService executor;
+
+    private MetricsSnapshotWriter() {
+    }
+
+    public static synchronized void start(NoviaversionkickConfig.Metrics config) {
+        stop();
+        if (!config.enabled || config.snapshotIntervalSeconds <= 0 || config.snapshotFile == null || config.snapshotFile.isBlank()) {
+            return;
+        }
+        Path path = FabricLoader.getInstance().getGameDir().resolve(config.snapshotFile);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Noviaversionkick Metrics Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> write(path), config.snapshotIntervalSeconds, config.snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static void write(Path path) {
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                JsonObject json = ParticleMetrics.snapshot().toJson();
+                json.add("effectCache", EffectPayloadCache.toJson());
+                GSON.toJson(json, writer);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException exception) {
+            LOGGER.warn("Failed to write particle metrics snapshot to {}", path, exception);
+        }
+    }
+}
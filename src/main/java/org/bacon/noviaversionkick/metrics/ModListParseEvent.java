@@ -0,0 +1,36 @@
+package org.bacon.noviaversionkick.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Parsing of a Fabric mod list login query response.
+ */
+@Name("noviaversionkick.ModListParse")
+@Label("Mod List Parse")
+@Category({"Noviaversionkick", "Classification"})
+@Description("Parsing of a Fabric mod list payload")
+@Threshold("0 ms")
+@StackTrace(false)
+public final class ModListParseEvent extends jdk.jfr.Event {
+    @Label("Channel")
+    public String channel;
+
+    @Label("Remote Address")
+    public String address;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Mods")
+    public int mods;
+
+    @Label("Parsed")
+    public boolean parsed;
+}
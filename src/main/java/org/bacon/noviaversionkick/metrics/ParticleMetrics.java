@@ -0,0 +1,266 @@
+package org.bacon.noviaversionkick.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.minecraft.particle.ParticleType;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.Identifier;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low overhead counters describing what the particle rewriting costs on a live server. All
+ * counters are striped {@link LongAdder}s so that concurrent event loops never contend, and
+ * totals are only summed when a snapshot is taken.
+ */
+public final class ParticleMetrics {
+    public enum Mode {
+        MODERN,
+        LEGACY,
+        SUPPRESSED
+    }
+
+    public enum FilterEvent {
+        CULLED_PACKETS,
+        CULLED_PARTICLES,
+        COALESCED_PACKETS,
+        THINNED_PARTICLES,
+        DROPPED_PACKETS,
+        DROPPED_PARTICLES,
+        HELD_PACKETS,
+        HOLD_EVICTED_PACKETS,
+        BUNDLES,
+        BUNDLED_PACKETS
+    }
+
+    private static final int CLIENT_CLASSES = 2;
+    private static final int HISTOGRAM_BUCKETS = 40;
+    private static final Mode[] MODES = Mode.values();
+    private static final FilterEvent[] FILTER_EVENTS = FilterEvent.values();
+
+    private static final LongAdder[] FILTER = adders(FILTER_EVENTS.length * CLIENT_CLASSES);
+    private static final LongAdder[] ENCODE_NANOS = adders(MODES.length * HISTOGRAM_BUCKETS);
+    private static volatile TypeCounters types = new TypeCounters(0);
+    private static volatile boolean enabled = true;
+    private static volatile boolean timeEncoding;
+
+    private ParticleMetrics() {
+    }
+
+    public static void configure(NoviaversionkickConfig.Metrics config) {
+        enabled = config.enabled;
+        timeEncoding = config.enabled && config.timeEncoding;
+        int size = Registries.PARTICLE_TYPE.size();
+        if (types.size != size) {
+            types = new TypeCounters(size);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isTimingEncoding() {
+        return timeEncoding;
+    }
+
+    public static void recordWrite(Mode mode, int typeId, int bytes) {
+        if (!enabled) {
+            return;
+        }
+        TypeCounters counters = types;
+        if (typeId < 0 || typeId >= counters.size) {
+            return;
+        }
+        int index = mode.ordinal() * counters.size + typeId;
+        counters.packets[index].increment();
+        counters.bytes[index].add(bytes);
+    }
+
+    public static void recordEncodeTime(Mode mode, long nanos) {
+        int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0L, nanos)));
+        ENCODE_NANOS[mode.ordinal() * HISTOGRAM_BUCKETS + bucket].increment();
+    }
+
+    public static void recordFilter(FilterEvent event, boolean legacyClient, long amount) {
+        if (enabled && amount > 0) {
+            FILTER[event.ordinal() * CLIENT_CLASSES + (legacyClient ? 1 : 0)].add(amount);
+        }
+    }
+
+    public static void reset() {
+        types = new TypeCounters(types.size);
+        for (LongAdder adder : FILTER) {
+            adder.reset();
+        }
+        for (LongAdder adder : ENCODE_NANOS) {
+            adder.reset();
+        }
+    }
+
+    public static Snapshot snapshot() {
+        TypeCounters counters = types;
+        long[] packets = new long[counters.packets.length];
+        long[] bytes = new long[counters.bytes.length];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = counters.packets[i].sum();
+            bytes[i] = counters.bytes[i].sum();
+        }
+        return new Snapshot(System.currentTimeMillis(), counters.size, packets, bytes, sums(FILTER), sums(ENCODE_NANOS));
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+
+    private static final class TypeCounters {
+        private final int size;
+        private final LongAdder[] packets;
+        private final LongAdder[] bytes;
+
+        private TypeCounters(int size) {
+            this.size = size;
+            this.packets = adders(MODES.length * size);
+            this.bytes = adders(MODES.length * size);
+        }
+    }
+
+    public record Snapshot(long timestamp, int typeCount, long[] packets, long[] bytes, long[] filter, long[] encodeNanos) {
+        public long packets(Mode mode) {
+            return sumRange(this.packets, mode.ordinal() * this.typeCount, this.typeCount);
+        }
+
+        public long bytes(Mode mode) {
+            return sumRange(this.bytes, mode.ordinal() * this.typeCount, this.typeCount);
+        }
+
+        public long filter(FilterEvent event, boolean legacyClient) {
+            return this.filter[event.ordinal() * CLIENT_CLASSES + (legacyClient ? 1 : 0)];
+        }
+
+        /**
+         * @return the upper bound, in nanoseconds, of the histogram bucket holding the given
+         * quantile, or {@code -1} when no encode times were recorded for the mode
+         */
+        public long encodeQuantile(Mode mode, double quantile) {
+            int offset = mode.ordinal() * HISTOGRAM_BUCKETS;
+            long total = sumRange(this.encodeNanos, offset, HISTOGRAM_BUCKETS);
+            if (total == 0) {
+                return -1L;
+            }
+            long target = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                seen += this.encodeNanos[offset + bucket];
+                if (seen >= target) {
+                    return 1L << bucket;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return up to {@code limit} particle type ids ordered by the number of packets written
+         * across all modes
+         */
+        public List<Integer> topTypes(int limit) {
+            List<Integer> ids = new ArrayList<>();
+            for (int typeId = 0; typeId < this.typeCount; typeId++) {
+                if (typePackets(typeId) > 0) {
+                    ids.add(typeId);
+                }
+            }
+            ids.sort((a, b) -> Long.compare(typePackets(b), typePackets(a)));
+            return ids.size() > limit ? ids.subList(0, limit) : ids;
+        }
+
+        public long typePackets(int typeId) {
+            long total = 0;
+            for (Mode mode : MODES) {
+                total += this.packets[mode.ordinal() * this.typeCount + typeId];
+            }
+            return total;
+        }
+
+        public JsonObject toJson() {
+            JsonObject root = new JsonObject();
+            root.addProperty("timestamp", this.timestamp);
+
+            JsonObject modes = new JsonObject();
+            for (Mode mode : MODES) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("packets", packets(mode));
+                entry.addProperty("bytes", bytes(mode));
+                entry.addProperty("encodeP50Nanos", encodeQuantile(mode, 0.5D));
+                entry.addProperty("encodeP99Nanos", encodeQuantile(mode, 0.99D));
+                JsonArray histogram = new JsonArray();
+                for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                    histogram.add(this.encodeNanos[mode.ordinal() * HISTOGRAM_BUCKETS + bucket]);
+                }
+                entry.add("encodeNanosLog2Histogram", histogram);
+                modes.add(mode.name().toLowerCase(Locale.ROOT), entry);
+            }
+            root.add("modes", modes);
+
+            JsonObject filters = new JsonObject();
+            for (FilterEvent event : FILTER_EVENTS) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("modern", filter(event, false));
+                entry.addProperty("legacy", filter(event, true));
+                filters.add(event.name().toLowerCase(Locale.ROOT), entry);
+            }
+            root.add("filters", filters);
+
+            JsonObject byType = new JsonObject();
+            for (int typeId = 0; typeId < this.typeCount; typeId++) {
+                if (typePackets(typeId) == 0) {
+                    continue;
+                }
+                JsonObject entry = new JsonObject();
+                for (Mode mode : MODES) {
+                    int index = mode.ordinal() * this.typeCount + typeId;
+                    if (this.packets[index] == 0) {
+                        continue;
+                    }
+                    JsonObject counts = new JsonObject();
+                    counts.addProperty("packets", this.packets[index]);
+                    counts.addProperty("bytes", this.bytes[index]);
+                    entry.add(mode.name().toLowerCase(Locale.ROOT), counts);
+                }
+                byType.add(typeName(typeId), entry);
+            }
+            root.add("types", byType);
+            return root;
+        }
+
+        public static String typeName(int typeId) {
+            ParticleType<?> type = Registries.PARTICLE_TYPE.get(typeId);
+            Identifier id = type == null ? null : Registries.PARTICLE_TYPE.getId(type);
+            return id == null ? "#" + typeId : id.toString();
+        }
+
+        private static long sumRange(long[] values, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += values[i];
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.bacon.noviaversionkick.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A particle packet written in the legacy format, or suppressed. Disabled by default because
+ * it fires once per packet and connection; enable it with a threshold to catch slow writes.
+ */
+@Name("noviaversionkick.ParticleWrite")
+@Label("Legacy Particle Write")
+@Category({"Noviaversionkick", "Particles"})
+@Description("Particle packet body written for a legacy client")
+@Enabled(false)
+@Threshold("20 us")
+@StackTrace(false)
+public final class ParticleWriteEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(ParticleWriteEvent.class);
+
+    @Label("Particle Type")
+    public String particleType;
+
+    @Label("Suppressed")
+    public boolean suppressed;
+
+    @Label("Bytes")
+    @DataAmount
+    public int bytes;
+
+    /**
+     * Cheap check used to skip creating the event on the hot path.
+     */
+    public static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+}
@@ -2,26 +2,149 @@ package org.bacon.noviaversionkick.mixin;
 
 import io.netty.channel.ChannelFutureListener;
 import net.minecraft.network.ClientConnection;
+import net.minecraft.network.NetworkState;
 import net.minecraft.network.packet.Packet;
-import org.bacon.noviaversionkick.network.PacketConnectionAttachment;
+import org.bacon.noviaversionkick.network.ClientInfoHolder;
+import org.bacon.noviaversionkick.network.ConnectionStateHolder;
+import org.bacon.noviaversionkick.network.ConnectionTrace;
+import org.bacon.noviaversionkick.network.ConnectionTraceHolder;
+import org.bacon.noviaversionkick.network.LegacyEncodingHandler;
+import org.bacon.noviaversionkick.network.ParticleBatch;
+import org.bacon.noviaversionkick.network.ParticleBatchHolder;
+import org.bacon.noviaversionkick.network.ParticleCoalescer;
+import org.bacon.noviaversionkick.network.ParticleCoalescerHolder;
+import org.bacon.noviaversionkick.network.ViaBrandTracker;
+import org.bacon.noviaversionkick.network.translate.PacketTranslators;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.util.UUID;
+
 @Mixin(ClientConnection.class)
-public abstract class ClientConnectionMixin {
-    @Inject(method = "sendInternal(Lnet/minecraft/network/packet/Packet;Lio/netty/channel/ChannelFutureListener;Z)V", at = @At("HEAD"))
-    private void noviaversionkick$tagConnection(Packet<?> packet, ChannelFutureListener listener, boolean flush, CallbackInfo ci) {
-        if (packet instanceof PacketConnectionAttachment attachment) {
-            attachment.noviaversionkick$setConnection((ClientConnection) (Object) this);
+public abstract class ClientConnectionMixin implements ClientInfoHolder, ParticleCoalescerHolder, ParticleBatchHolder, ConnectionTraceHolder, ConnectionStateHolder {
+    @Unique private volatile ViaBrandTracker.ClientInfo noviaversionkick$clientInfo;
+    @Unique private volatile UUID noviaversionkick$playerId;
+    @Unique private ParticleCoalescer noviaversionkick$particleCoalescer;
+    @Unique private ParticleBatch noviaversionkick$particleBatch;
+    @Unique private final ConnectionTrace noviaversionkick$trace = new ConnectionTrace();
+    // Set while a replacement packet is passed to sendInternal; only touched on the event loop
+    @Unique private boolean noviaversionkick$resendingInternal;
+
+    @Shadow
+    private void sendInternal(Packet<?> packet, ChannelFutureListener listener, boolean flush) {
+        throw new AssertionError();
+    }
+
+    @Override
+    public ViaBrandTracker.ClientInfo noviaversionkick$getClientInfo() {
+        return this.noviaversionkick$clientInfo;
+    }
+
+    @Override
+    public void noviaversionkick$setClientInfo(ViaBrandTracker.ClientInfo info) {
+        this.noviaversionkick$clientInfo = info;
+    }
+
+    @Override
+    public UUID noviaversionkick$getPlayerId() {
+        return this.noviaversionkick$playerId;
+    }
+
+    @Override
+    public void noviaversionkick$setPlayerId(UUID playerId) {
+        this.noviaversionkick$playerId = playerId;
+    }
+
+    @Override
+    public ParticleCoalescer noviaversionkick$getParticleCoalescer() {
+        ParticleCoalescer coalescer = this.noviaversionkick$particleCoalescer;
+        if (coalescer == null) {
+            coalescer = new ParticleCoalescer();
+            this.noviaversionkick$particleCoalescer = coalescer;
         }
+        return coalescer;
     }
 
-    @Inject(method = "sendInternal(Lnet/minecraft/network/packet/Packet;Lio/netty/channel/ChannelFutureListener;Z)V", at = @At("TAIL"))
-    private void noviaversionkick$clearConnection(Packet<?> packet, ChannelFutureListener listener, boolean flush, CallbackInfo ci) {
-        if (packet instanceof PacketConnectionAttachment attachment) {
-            attachment.noviaversionkick$setConnection(null);
+    @Override
+    public ParticleBatch noviaversionkick$getParticleBatch() {
+        ParticleBatch batch = this.noviaversionkick$particleBatch;
+        if (batch == null) {
+            batch = new ParticleBatch();
+            this.noviaversionkick$particleBatch = batch;
+        }
+        return batch;
+    }
+
+    @Override
+    public ConnectionTrace noviaversionkick$getTrace() {
+        return this.noviaversionkick$trace;
+    }
+
+    @Override
+    public void noviaversionkick$releaseState() {
+        this.noviaversionkick$particleCoalescer = null;
+        this.noviaversionkick$particleBatch = null;
+        this.noviaversionkick$trace.clear();
+    }
+
+    @Override
+    public long noviaversionkick$estimateStateBytes() {
+        ParticleCoalescer coalescer = this.noviaversionkick$particleCoalescer;
+        ParticleBatch batch = this.noviaversionkick$particleBatch;
+        // The fields above plus the trace object itself
+        return 64L
+            + this.noviaversionkick$trace.retainedBytes()
+            + (coalescer == null ? 0L : coalescer.retainedBytes())
+            + (batch == null ? 0L : batch.retainedBytes());
+    }
+
+    // Vanilla swaps the encoder on every outbound protocol transition; keep the legacy handler in front of the new one
+    @Inject(method = "transitionOutbound", at = @At("TAIL"))
+    private void noviaversionkick$keepLegacyEncoding(NetworkState<?> state, CallbackInfo ci) {
+        if (ViaBrandTracker.shouldUseLegacyParticles((ClientConnection) (Object) this)) {
+            LegacyEncodingHandler.update((ClientConnection) (Object) this);
+        }
+    }
+
+    // Runs on the sending thread; vanilla only hops to the event loop further down. Untranslated packets return after the table lookup
+    @Inject(method = "send(Lnet/minecraft/network/packet/Packet;Lio/netty/channel/ChannelFutureListener;Z)V", at = @At("HEAD"), cancellable = true)
+    private void noviaversionkick$translateOnSend(Packet<?> packet, ChannelFutureListener listener, boolean flush, CallbackInfo ci) {
+        if (listener != null) {
+            return;
+        }
+        Packet<?> translated = PacketTranslators.onSend((ClientConnection) (Object) this, packet);
+        if (translated == packet) {
+            return;
+        }
+        ci.cancel();
+        if (translated != null) {
+            PacketTranslators.resend((ClientConnection) (Object) this, translated, flush);
+        }
+    }
+
+    // Always on the channel's event loop. Untranslated packets return after the table lookup
+    @Inject(method = "sendInternal(Lnet/minecraft/network/packet/Packet;Lio/netty/channel/ChannelFutureListener;Z)V", at = @At("HEAD"), cancellable = true)
+    private void noviaversionkick$translateOnEventLoop(Packet<?> packet, ChannelFutureListener listener, boolean flush, CallbackInfo ci) {
+        // Packets with a listener are never dropped so that the caller is always notified
+        if (listener != null || this.noviaversionkick$resendingInternal) {
+            return;
+        }
+        Packet<?> translated = PacketTranslators.onEventLoop((ClientConnection) (Object) this, packet);
+        if (translated == packet) {
+            return;
+        }
+        ci.cancel();
+        if (translated != null) {
+            this.noviaversionkick$resendingInternal = true;
+            try {
+                this.sendInternal(translated, null, flush);
+            } finally {
+                this.noviaversionkick$resendingInternal = false;
+            }
         }
     }
 }
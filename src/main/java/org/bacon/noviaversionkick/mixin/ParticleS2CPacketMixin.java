@@ -1,15 +1,19 @@
 package org.bacon.noviaversionkick.mixin;
 
-import net.minecraft.network.ClientConnection;
+import com.llamalad7.mixinextras.sugar.Share;
+import com.llamalad7.mixinextras.sugar.ref.LocalIntRef;
+import com.llamalad7.mixinextras.sugar.ref.LocalLongRef;
 import net.minecraft.network.RegistryByteBuf;
 import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import net.minecraft.particle.BlockStateParticleEffect;
 import net.minecraft.particle.ParticleEffect;
-import net.minecraft.particle.ParticleTypes;
 import net.minecraft.registry.Registries;
-import org.bacon.noviaversionkick.network.PacketConnectionAttachment;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+import org.bacon.noviaversionkick.network.ClientInfoHolder;
+import org.bacon.noviaversionkick.network.EncodingContext;
+import org.bacon.noviaversionkick.network.LegacyParticleEncoder;
+import org.bacon.noviaversionkick.network.ParticlePacketView;
+import org.bacon.noviaversionkick.network.ParticleWriter;
+import org.bacon.noviaversionkick.network.SharedParticleEncoding;
 import org.bacon.noviaversionkick.network.ViaBrandTracker;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
@@ -18,10 +22,11 @@ import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
-import net.minecraft.util.Identifier;
+
+import java.util.Objects;
 
 @Mixin(ParticleS2CPacket.class)
-public abstract class ParticleS2CPacketMixin implements PacketConnectionAttachment {
+public abstract class ParticleS2CPacketMixin implements ParticlePacketView, SharedParticleEncoding {
     @Final
     @Shadow private double x;
     @Final
@@ -41,122 +46,91 @@ public abstract class ParticleS2CPacketMixin implements PacketConnectionAttachme
     @Final
     @Shadow private boolean forceSpawn;
     @Final
+    @Shadow private boolean important;
+    @Final
     @Shadow private ParticleEffect parameters;
-    @Unique private ClientConnection noviaversionkick$connection;
-    @Unique private static final double noviaversionkick$SURFACE_THRESHOLD = 0.3D;
-    @Unique private static final double noviaversionkick$AXIS_EPSILON = 1.0E-6D;
+    // Wire bytes shared by every recipient of this packet instance, filled on first write
+    @Unique private volatile byte[] noviaversionkick$legacyBytes;
+    @Unique private volatile byte[] noviaversionkick$modernBytes;
+    @Unique private int noviaversionkick$typeId = -1;
 
     @Override
-    public void noviaversionkick$setConnection(ClientConnection connection) {
-        this.noviaversionkick$connection = connection;
+    public ParticleS2CPacket noviaversionkick$withCount(int count) {
+        return new ParticleS2CPacket(this.parameters, this.forceSpawn, this.important, this.x, this.y, this.z, this.offsetX, this.offsetY, this.offsetZ, this.speed, count);
     }
 
     @Override
-    public ClientConnection noviaversionkick$getConnection() {
-        return this.noviaversionkick$connection;
+    public boolean noviaversionkick$canMergeWith(ParticleS2CPacket other) {
+        ParticleS2CPacketMixin that = (ParticleS2CPacketMixin) (Object) other;
+        return Objects.equals(this.parameters, that.parameters)
+            && this.forceSpawn == that.forceSpawn
+            && this.important == that.important
+            && Float.floatToIntBits(this.offsetX) == Float.floatToIntBits(that.offsetX)
+            && Float.floatToIntBits(this.offsetY) == Float.floatToIntBits(that.offsetY)
+            && Float.floatToIntBits(this.offsetZ) == Float.floatToIntBits(that.offsetZ)
+            && Float.floatToIntBits(this.speed) == Float.floatToIntBits(that.speed);
     }
 
     @Inject(method = "write", at = @At("HEAD"), cancellable = true)
-    private void noviaversionkick$writeLegacyWhenNeeded(RegistryByteBuf buf, CallbackInfo ci) {
-        ClientConnection connection = this.noviaversionkick$getConnection();
-        if (ViaBrandTracker.shouldUseLegacyParticles(connection)) {
-            noviaversionkick$writeLegacy(buf);
+    private void noviaversionkick$writeLegacyWhenNeeded(RegistryByteBuf buf, CallbackInfo ci, @Share("start") LocalIntRef start, @Share("startNanos") LocalLongRef startNanos) {
+        // Only set while a legacy connection's handler is writing; null for every modern connection
+        ClientInfoHolder client = EncodingContext.current();
+        if (client != null && ViaBrandTracker.shouldUseLegacyParticles(client)) {
+            ParticleWriter.write(this, buf, client);
             ci.cancel();
-        }
-    }
-
-    private void noviaversionkick$writeLegacy(RegistryByteBuf buf) {
-        ParticleEffect effect = this.parameters;
-        if (effect == null) {
             return;
         }
-        if (noviaversionkick$shouldSuppress(effect)) {
-            noviaversionkick$writeSuppressed(buf);
-            return;
+        // Vanilla writes the modern layout; only remember where it starts for the metrics
+        start.set(buf.writerIndex());
+        if (ParticleMetrics.isTimingEncoding()) {
+            startNanos.set(System.nanoTime());
         }
-        ByteBuf backing = Unpooled.buffer();
-        try {
-            RegistryByteBuf encoded = new RegistryByteBuf(backing, buf.getRegistryManager());
-            ParticleTypes.PACKET_CODEC.encode(encoded, effect);
-            int particleTypeId = Registries.PARTICLE_TYPE.getRawId(effect.getType());
-            buf.writeVarInt(particleTypeId);
-            buf.writeBoolean(this.forceSpawn);
-            noviaversionkick$writeAlignedPosition(buf, effect);
-            buf.writeFloat(this.offsetX);
-            buf.writeFloat(this.offsetY);
-            buf.writeFloat(this.offsetZ);
-            buf.writeFloat(this.speed);
-            buf.writeInt(this.count);
+    }
 
-            encoded.readerIndex(0);
-            buf.writeBytes(encoded);
-        } finally {
-            backing.release();
+    // Only reached when the hook above let vanilla write the packet
+    @Inject(method = "write", at = @At("TAIL"))
+    private void noviaversionkick$recordModernWrite(RegistryByteBuf buf, CallbackInfo ci, @Share("start") LocalIntRef start, @Share("startNanos") LocalLongRef startNanos) {
+        if (ParticleMetrics.isEnabled()) {
+            ParticleWriter.recordModernWrite(this, buf.writerIndex() - start.get(), startNanos.get());
         }
     }
 
-    @Unique
-    private boolean noviaversionkick$shouldSuppress(ParticleEffect effect) {
-        Identifier id = Registries.PARTICLE_TYPE.getId(effect.getType());
-        if (id == null) {
-            return false;
+    @Override
+    public int noviaversionkick$typeId() {
+        int typeId = this.noviaversionkick$typeId;
+        if (typeId < 0 && this.parameters != null) {
+            typeId = Registries.PARTICLE_TYPE.getRawId(this.parameters.getType());
+            this.noviaversionkick$typeId = typeId;
         }
-        return id.getPath().startsWith("falling_");
+        return typeId;
     }
 
-    @Unique
-    private void noviaversionkick$writeSuppressed(RegistryByteBuf buf) {
-        int fallbackId = Registries.PARTICLE_TYPE.getRawId(ParticleTypes.POOF);
-        buf.writeVarInt(fallbackId);
-        buf.writeBoolean(false);
-        buf.writeDouble(this.x);
-        buf.writeDouble(this.y);
-        buf.writeDouble(this.z);
-        buf.writeFloat(0.0F);
-        buf.writeFloat(0.0F);
-        buf.writeFloat(0.0F);
-        buf.writeFloat(0.0F);
-        buf.writeInt(0);
+    @Override
+    public int noviaversionkick$count() {
+        return this.count;
     }
 
-    @Unique
-    private void noviaversionkick$writeAlignedPosition(RegistryByteBuf buf, ParticleEffect effect) {
-        if (!(effect instanceof BlockStateParticleEffect)) {
-            buf.writeDouble(this.x);
-            buf.writeDouble(this.y);
-            buf.writeDouble(this.z);
-            return;
-        }
-
-        double posX = this.x;
-        double posY = this.y;
-        double posZ = this.z;
-
-        double baseX = Math.floor(posX);
-        double baseY = Math.floor(posY);
-        double baseZ = Math.floor(posZ);
-
-        double fractionalX = posX - baseX;
-        double fractionalY = posY - baseY;
-        double fractionalZ = posZ - baseZ;
-
-        double distanceX = Math.min(fractionalX, 1.0D - fractionalX);
-        double distanceY = Math.min(fractionalY, 1.0D - fractionalY);
-        double distanceZ = Math.min(fractionalZ, 1.0D - fractionalZ);
+    @Override
+    public byte[] noviaversionkick$cachedBytes(boolean legacy) {
+        return legacy ? this.noviaversionkick$legacyBytes : this.noviaversionkick$modernBytes;
+    }
 
-        double nearest = Math.min(distanceX, Math.min(distanceY, distanceZ));
-        if (nearest <= noviaversionkick$SURFACE_THRESHOLD) {
-            if (distanceX <= nearest + noviaversionkick$AXIS_EPSILON) {
-                posX = baseX + (fractionalX < 0.5D ? 0.0D : 1.0D);
-            } else if (distanceY <= nearest + noviaversionkick$AXIS_EPSILON) {
-                posY = baseY + (fractionalY < 0.5D ? 0.0D : 1.0D);
-            } else {
-                posZ = baseZ + (fractionalZ < 0.5D ? 0.0D : 1.0D);
-            }
+    @Override
+    public void noviaversionkick$cacheBytes(boolean legacy, byte[] bytes) {
+        if (legacy) {
+            this.noviaversionkick$legacyBytes = bytes;
+        } else {
+            this.noviaversionkick$modernBytes = bytes;
         }
+    }
 
-        buf.writeDouble(posX);
-        buf.writeDouble(posY);
-        buf.writeDouble(posZ);
+    // Calling write here would re-enter the hook above, so both layouts are written directly
+    @Override
+    public void noviaversionkick$writeUncached(RegistryByteBuf buf, boolean legacy) {
+        if (legacy) {
+            LegacyParticleEncoder.write(buf, this.parameters, this.forceSpawn, this.x, this.y, this.z, this.offsetX, this.offsetY, this.offsetZ, this.speed, this.count);
+        } else {
+            ParticleWriter.writeModern(buf, this.parameters, this.forceSpawn, this.important, this.x, this.y, this.z, this.offsetX, this.offsetY, this.offsetZ, this.speed, this.count);
+        }
     }
 }
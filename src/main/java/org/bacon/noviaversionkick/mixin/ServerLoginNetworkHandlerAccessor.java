@@ -1,5 +1,6 @@
 package org.bacon.noviaversionkick.mixin;
 
+import com.mojang.authlib.GameProfile;
 import net.minecraft.network.ClientConnection;
 import net.minecraft.server.network.ServerLoginNetworkHandler;
 import org.spongepowered.asm.mixin.Mixin;
@@ -9,4 +10,7 @@ import org.spongepowered.asm.mixin.gen.Accessor;
 public interface ServerLoginNetworkHandlerAccessor {
     @Accessor("connection")
     ClientConnection noviaversionkick$getConnection();
+
+    @Accessor("profile")
+    GameProfile noviaversionkick$getProfile();
 }
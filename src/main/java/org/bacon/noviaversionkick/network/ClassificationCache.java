@@ -0,0 +1,320 @@
+package org.bacon.noviaversionkick.network;
+
+import net.fabricmc.loader.api.FabricLoader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the last particle encoding decision per player UUID across restarts.
+ *
+ * <p>The file is an eight byte header followed by fixed size records that are only ever
+ * appended; a later record for the same player replaces earlier ones. It is read on a
+ * background thread as soon as the cache is configured, and lookups miss until it has been
+ * read. It is rewritten without superseded or expired records when those make up most of the
+ * file. All disk access happens on that single background thread.
+ *
+ * <p>Each record carries the {@link ClassificationRules#fingerprint() fingerprint} of the rules
+ * that made the decision, and lookups ignore records made under different rules, so a rule
+ * change takes effect for returning players as soon as it is loaded.
+ */
+public final class ClassificationCache {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    private static final int MAGIC = 0x4E564B43;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8;
+    // uuid (16) + last seen millis (8) + profile fingerprint (8) + rules fingerprint (8) + flags (1)
+    private static final int RECORD_BYTES = 41;
+    private static final int MAX_FILE_BYTES = 64 * 1024 * 1024;
+    private static final byte FLAG_LEGACY = 1;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static volatile Store store;
+
+    private ClassificationCache() {
+    }
+
+    public static synchronized void configure(NoviaversionkickConfig.ClassificationCache config) {
+        Path path = config.enabled && config.file != null && !config.file.isBlank()
+            ? FabricLoader.getInstance().getGameDir().resolve(config.file)
+            : null;
+        long maxAgeMillis = Math.max(1, config.maxAgeDays) * DAY_MILLIS;
+        Store previous = store;
+        if (previous != null && previous.path.equals(path) && previous.maxAgeMillis == maxAgeMillis) {
+            return;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        Store created = path == null ? null : new Store(path, maxAgeMillis);
+        if (created != null) {
+            created.startLoading();
+        }
+        store = created;
+    }
+
+    public static synchronized void stop() {
+        Store previous = store;
+        store = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Returns the remembered decision for {@code playerId}, or {@code null} if the player is
+     * unknown, the entry has expired or was made under other rules, the file is still being
+     * read or the cache is disabled.
+     */
+    public static Boolean lookup(UUID playerId) {
+        Store current = store;
+        if (current == null || playerId == null) {
+            return null;
+        }
+        Map<UUID, Entry> entries = current.entries;
+        Entry entry = entries == null ? null : entries.get(playerId);
+        if (entry == null || entry.rulesFingerprint != ClassificationRules.get().fingerprint()
+            || System.currentTimeMillis() - entry.lastSeen > current.maxAgeMillis) {
+            return null;
+        }
+        return entry.legacy;
+    }
+
+    public static void record(UUID playerId, long fingerprint, boolean legacy) {
+        Store current = store;
+        if (current == null || playerId == null) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), fingerprint, ClassificationRules.get().fingerprint(), legacy);
+        Map<UUID, Entry> entries = current.entries;
+        if (entries == null) {
+            // Still loading; the writer thread applies it once the file has been read
+            current.submit(() -> current.record(current.entries, playerId, entry));
+        } else {
+            current.record(entries, playerId, entry);
+        }
+    }
+
+    private record Entry(long lastSeen, long fingerprint, long rulesFingerprint, boolean legacy) {
+    }
+
+    private static final class Store {
+        private final Path path;
+        private final long maxAgeMillis;
+        private final ExecutorService writer;
+        private volatile Map<UUID, Entry> entries;
+        // Only touched on the writer thread
+        private long recordsInFile;
+
+        private Store(Path path, long maxAgeMillis) {
+            this.path = path;
+            this.maxAgeMillis = maxAgeMillis;
+            this.writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Noviaversionkick Classification Cache");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private void startLoading() {
+            this.submit(() -> {
+                Map<UUID, Entry> loaded = new ConcurrentHashMap<>();
+                try {
+                    loaded = this.load();
+                } finally {
+                    // Even a failed read ends the loading phase, so that new decisions are kept
+                    this.entries = loaded;
+                }
+            });
+        }
+
+        private void record(Map<UUID, Entry> entries, UUID playerId, Entry entry) {
+            Entry previous = entries.get(playerId);
+            // Unchanged players are only rewritten once their entry is half way to expiring
+            if (previous != null && previous.fingerprint == entry.fingerprint && previous.rulesFingerprint == entry.rulesFingerprint
+                && previous.legacy == entry.legacy && entry.lastSeen - previous.lastSeen < this.maxAgeMillis / 2) {
+                return;
+            }
+            entries.put(playerId, entry);
+            this.append(playerId, entry);
+        }
+
+        private Map<UUID, Entry> load() {
+            ConcurrentHashMap<UUID, Entry> loaded = new ConcurrentHashMap<>();
+            long records = 0;
+            try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > MAX_FILE_BYTES) {
+                    LOGGER.warn("Ignoring classification cache {} because it is {} bytes", this.path, size);
+                    return loaded;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+                buffer.flip();
+                if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    LOGGER.warn("Ignoring classification cache {} with an unknown format", this.path);
+                    this.scheduleCompaction(loaded, 0);
+                    return loaded;
+                }
+                long oldest = System.currentTimeMillis() - this.maxAgeMillis;
+                // A torn final record from a crash is simply ignored
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    UUID playerId = new UUID(buffer.getLong(), buffer.getLong());
+                    long lastSeen = buffer.getLong();
+                    long fingerprint = buffer.getLong();
+                    long rulesFingerprint = buffer.getLong();
+                    boolean legacy = (buffer.get() & FLAG_LEGACY) != 0;
+                    records++;
+                    if (lastSeen < oldest) {
+                        loaded.remove(playerId);
+                    } else {
+                        loaded.put(playerId, new Entry(lastSeen, fingerprint, rulesFingerprint, legacy));
+                    }
+                }
+                if (buffer.hasRemaining() || records > 2L * loaded.size() + 64) {
+                    this.scheduleCompaction(loaded, records);
+                } else {
+                    long counted = records;
+                    this.submit(() -> this.recordsInFile = counted);
+                }
+            } catch (NoSuchFileException exception) {
+                // Nothing cached yet
+            } catch (IOException exception) {
+                LOGGER.warn("Failed to read classification cache {}", this.path, exception);
+            }
+            LOGGER.debug("Loaded {} cached client classifications from {} ({} records)", loaded.size(), this.path, records);
+            return loaded;
+        }
+
+        private void append(UUID playerId, Entry entry) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+            writeRecord(record, playerId, entry);
+            record.flip();
+            this.submit(() -> {
+                Path parent = this.path.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    if (channel.size() < HEADER_BYTES) {
+                        channel.truncate(0);
+                        writeFully(channel, header());
+                        this.recordsInFile = 0;
+                    }
+                    writeFully(channel, record);
+                }
+                this.recordsInFile++;
+                Map<UUID, Entry> live = this.entries;
+                if (live != null && this.recordsInFile > 2L * live.size() + 64) {
+                    this.compact(live);
+                }
+            });
+        }
+
+        private void scheduleCompaction(Map<UUID, Entry> live, long records) {
+            this.submit(() -> {
+                this.recordsInFile = records;
+                this.compact(live);
+            });
+        }
+
+        // Writer thread only
+        private void compact(Map<UUID, Entry> live) throws IOException {
+            long oldest = System.currentTimeMillis() - this.maxAgeMillis;
+            live.values().removeIf(entry -> entry.lastSeen < oldest);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + live.size() * RECORD_BYTES + RECORD_BYTES);
+            buffer.put(header());
+            long written = 0;
+            for (Map.Entry<UUID, Entry> entry : live.entrySet()) {
+                if (buffer.remaining() < RECORD_BYTES) {
+                    break;
+                }
+                writeRecord(buffer, entry.getKey(), entry.getValue());
+                written++;
+            }
+            buffer.flip();
+            Path parent = this.path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temporary = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, buffer);
+            }
+            Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("Compacted classification cache {} from {} to {} records", this.path, this.recordsInFile, written);
+            this.recordsInFile = written;
+        }
+
+        private void submit(IoTask task) {
+            try {
+                this.writer.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (IOException | RuntimeException exception) {
+                        LOGGER.warn("Failed to update classification cache {}", this.path, exception);
+                    }
+                });
+            } catch (RejectedExecutionException exception) {
+                // Closed while a login was being processed; the entry is recorded next time
+            }
+        }
+
+        private void close() {
+            this.writer.shutdown();
+            try {
+                if (!this.writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                    LOGGER.warn("Timed out flushing classification cache {}", this.path);
+                    this.writer.shutdownNow();
+                }
+            } catch (InterruptedException exception) {
+                this.writer.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        return header;
+    }
+
+    private static void writeRecord(ByteBuffer buffer, UUID playerId, Entry entry) {
+        buffer.putLong(playerId.getMostSignificantBits());
+        buffer.putLong(playerId.getLeastSignificantBits());
+        buffer.putLong(entry.lastSeen);
+        buffer.putLong(entry.fingerprint);
+        buffer.putLong(entry.rulesFingerprint);
+        buffer.put(entry.legacy ? FLAG_LEGACY : 0);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package org.bacon.noviaversionkick.network;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compiled form of the configured client classification rules. Brand substrings and mod id
+ * substrings are each matched in a single pass by an Aho-Corasick automaton, exact mod ids by
+ * a hash lookup, and the result for every pooled mod id is cached per rule set. Instances are
+ * immutable apart from that cache and are swapped atomically on reload, so readers never lock.
+ *
+ * <p>A rule matches when at least one of its brand patterns and at least one of its mod
+ * patterns match; a rule without patterns of one kind places no condition on it. The first
+ * matching rule decides the encoding, otherwise the default applies.
+ */
+public final class ClassificationRules {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    // Bit 63 of a cached pool mask marks it as computed
+    private static final int MAX_RULES = 63;
+    private static final long COMPUTED = 1L << 63;
+    private static volatile ClassificationRules current = compile(new NoviaversionkickConfig.Classification());
+
+    private final int ruleCount;
+    private final long legacyRules;
+    private final boolean defaultLegacy;
+    private final long noBrandCondition;
+    private final long noModCondition;
+    private final Automaton brandPatterns;
+    private final Automaton modPatterns;
+    private final Map<String, Long> exactModIds;
+    private final long fingerprint;
+    private final AtomicLongArray poolMasks = new AtomicLongArray(ModIdPool.MAX_IDS);
+
+    private ClassificationRules(int ruleCount, long legacyRules, boolean defaultLegacy, long noBrandCondition, long noModCondition,
+                                Automaton brandPatterns, Automaton modPatterns, Map<String, Long> exactModIds, long fingerprint) {
+        this.ruleCount = ruleCount;
+        this.legacyRules = legacyRules;
+        this.defaultLegacy = defaultLegacy;
+        this.noBrandCondition = noBrandCondition;
+        this.noModCondition = noModCondition;
+        this.brandPatterns = brandPatterns;
+        this.modPatterns = modPatterns;
+        this.exactModIds = exactModIds;
+        this.fingerprint = fingerprint;
+    }
+
+    public static ClassificationRules get() {
+        return current;
+    }
+
+    public static ClassificationRules rebuild(NoviaversionkickConfig.Classification config) {
+        ClassificationRules rules = compile(config);
+        current = rules;
+        LOGGER.debug("Compiled {} client classification rules", rules.ruleCount);
+        return rules;
+    }
+
+    private static ClassificationRules compile(NoviaversionkickConfig.Classification config) {
+        List<NoviaversionkickConfig.ClassificationRule> configured = config.rules == null ? List.of() : config.rules;
+        if (configured.size() > MAX_RULES) {
+            LOGGER.warn("Only the first {} of {} client classification rules are used", MAX_RULES, configured.size());
+            configured = configured.subList(0, MAX_RULES);
+        }
+        Automaton.Builder brands = new Automaton.Builder();
+        Automaton.Builder mods = new Automaton.Builder();
+        Map<String, Long> exact = new HashMap<>();
+        long legacyRules = 0L;
+        long noBrandCondition = 0L;
+        long noModCondition = 0L;
+        // Normalised form of the rules in use, hashed into the fingerprint
+        StringBuilder canonical = new StringBuilder();
+        int index = 0;
+        for (NoviaversionkickConfig.ClassificationRule rule : configured) {
+            if (rule == null) {
+                continue;
+            }
+            Boolean legacy = parseEncoding(rule.encoding);
+            if (legacy == null) {
+                LOGGER.warn("Ignoring client classification rule with unknown encoding '{}'", rule.encoding);
+                continue;
+            }
+            long bit = 1L << index++;
+            if (legacy) {
+                legacyRules |= bit;
+            }
+            canonical.append(legacy ? 'L' : 'M');
+            appendCanonical(canonical, rule.brandContains);
+            appendCanonical(canonical, rule.modIdContains);
+            appendCanonical(canonical, rule.modIds);
+            if (!brands.addAll(rule.brandContains, bit)) {
+                noBrandCondition |= bit;
+            }
+            boolean modCondition = mods.addAll(rule.modIdContains, bit);
+            if (rule.modIds != null) {
+                for (String modId : rule.modIds) {
+                    if (modId != null && !modId.isBlank()) {
+                        exact.merge(modId.trim().toLowerCase(Locale.ROOT), bit, (left, right) -> left | right);
+                        modCondition = true;
+                    }
+                }
+            }
+            if (!modCondition) {
+                noModCondition |= bit;
+            }
+        }
+        Boolean defaultLegacy = parseEncoding(config.defaultEncoding);
+        if (defaultLegacy == null) {
+            LOGGER.warn("Unknown default encoding '{}'; using modern", config.defaultEncoding);
+            defaultLegacy = false;
+        }
+        canonical.append(defaultLegacy ? 'L' : 'M');
+        return new ClassificationRules(index, legacyRules, defaultLegacy, noBrandCondition, noModCondition, brands.build(), mods.build(), Map.copyOf(exact),
+            fnv(canonical.toString()));
+    }
+
+    private static void appendCanonical(StringBuilder canonical, List<String> patterns) {
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                if (pattern != null && !pattern.isBlank()) {
+                    canonical.append(pattern.trim().toLowerCase(Locale.ROOT)).append('\0');
+                }
+            }
+        }
+        canonical.append('\1');
+    }
+
+    private static long fnv(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return a hash of the normalised rules and default encoding, which changes whenever a
+     * reload may change a decision
+     */
+    public long fingerprint() {
+        return this.fingerprint;
+    }
+
+    private static Boolean parseEncoding(String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        return switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+            case "legacy" -> Boolean.TRUE;
+            case "modern" -> Boolean.FALSE;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return the index of the first rule matching the brand and mod list, or {@code -1}
+     */
+    int classify(String brand, long[] modBits, String[] overflowMods) {
+        long matched = this.noBrandCondition;
+        if (brand != null) {
+            matched |= this.brandPatterns.match(brand);
+        }
+        if (matched == 0L) {
+            return -1;
+        }
+        long modMatches = this.noModCondition;
+        if (modBits != null) {
+            for (int word = 0; word < modBits.length; word++) {
+                long remaining = modBits[word];
+                while (remaining != 0) {
+                    modMatches |= this.poolMask((word << 6) + Long.numberOfTrailingZeros(remaining));
+                    remaining &= remaining - 1;
+                }
+            }
+        }
+        if (overflowMods != null) {
+            for (String mod : overflowMods) {
+                modMatches |= this.modMask(mod);
+            }
+        }
+        matched &= modMatches;
+        return matched == 0L ? -1 : Long.numberOfTrailingZeros(matched);
+    }
+
+    boolean legacy(int rule) {
+        return rule < 0 ? this.defaultLegacy : (this.legacyRules >>> rule & 1L) != 0L;
+    }
+
+    private long poolMask(int id) {
+        long mask = this.poolMasks.get(id);
+        if (mask == 0L) {
+            mask = this.modMask(ModIdPool.name(id)) | COMPUTED;
+            this.poolMasks.set(id, mask);
+        }
+        return mask & ~COMPUTED;
+    }
+
+    private long modMask(String modId) {
+        // Exact ids are keyed in lower case; toLowerCase returns the id itself when it already is
+        return this.exactModIds.getOrDefault(modId.toLowerCase(Locale.ROOT), 0L) | this.modPatterns.match(modId);
+    }
+
+    /**
+     * Aho-Corasick automaton compiled into a dense transition table over the characters that
+     * occur in its patterns. Matching is case-insensitive; every other character leads back
+     * to the root.
+     */
+    private static final class Automaton {
+        private final char[] symbols;
+        private final int width;
+        private final int[] transitions;
+        private final long[] outputs;
+
+        private Automaton(char[] symbols, int[] transitions, long[] outputs) {
+            this.symbols = symbols;
+            this.width = symbols.length + 1;
+            this.transitions = transitions;
+            this.outputs = outputs;
+        }
+
+        long match(String text) {
+            if (this.symbols.length == 0) {
+                return 0L;
+            }
+            int state = 0;
+            long found = 0L;
+            for (int i = 0; i < text.length(); i++) {
+                int symbol = Arrays.binarySearch(this.symbols, Character.toLowerCase(text.charAt(i))) + 1;
+                state = this.transitions[state * this.width + Math.max(symbol, 0)];
+                found |= this.outputs[state];
+            }
+            return found;
+        }
+
+        private static final class Builder {
+            private final List<Map<Character, Integer>> children = new ArrayList<>(List.of(new HashMap<>()));
+            private final List<Long> outputs = new ArrayList<>(List.of(0L));
+            private final TreeSet<Character> symbols = new TreeSet<>();
+
+            /**
+             * @return whether any non-blank pattern was added
+             */
+            boolean addAll(List<String> patterns, long bit) {
+                boolean added = false;
+                if (patterns == null) {
+                    return false;
+                }
+                for (String pattern : patterns) {
+                    if (pattern == null || pattern.isBlank()) {
+                        continue;
+                    }
+                    int state = 0;
+                    for (char c : pattern.trim().toLowerCase(Locale.ROOT).toCharArray()) {
+                        this.symbols.add(c);
+                        Integer next = this.children.get(state).get(c);
+                        if (next == null) {
+                            next = this.children.size();
+                            this.children.add(new HashMap<>());
+                            this.outputs.add(0L);
+                            this.children.get(state).put(c, next);
+                        }
+                        state = next;
+                    }
+                    this.outputs.set(state, this.outputs.get(state) | bit);
+                    added = true;
+                }
+                return added;
+            }
+
+            Automaton build() {
+                char[] alphabet = new char[this.symbols.size()];
+                int index = 0;
+                for (char c : this.symbols) {
+                    alphabet[index++] = c;
+                }
+                int width = alphabet.length + 1;
+                int states = this.children.size();
+                int[] transitions = new int[states * width];
+                long[] outputs = new long[states];
+                int[] failure = new int[states];
+                outputs[0] = this.outputs.get(0);
+                // Breadth-first, so every failure target is complete before it is used
+                ArrayDeque<Integer> queue = new ArrayDeque<>();
+                queue.add(0);
+                while (!queue.isEmpty()) {
+                    int state = queue.poll();
+                    Map<Character, Integer> next = this.children.get(state);
+                    for (int symbol = 1; symbol < width; symbol++) {
+                        Integer child = next.get(alphabet[symbol - 1]);
+                        int fallback = state == 0 ? 0 : transitions[failure[state] * width + symbol];
+                        if (child == null) {
+                            transitions[state * width + symbol] = fallback;
+                            continue;
+                        }
+                        transitions[state * width + symbol] = child;
+                        failure[child] = fallback;
+                        outputs[child] = this.outputs.get(child) | outputs[fallback];
+                        queue.add(child);
+                    }
+                }
+                return new Automaton(alphabet, transitions, outputs);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.bacon.noviaversionkick.network;
+
+import java.util.UUID;
+
+/**
+ * Implemented on {@link net.minecraft.network.ClientConnection} by mixin so that the
+ * tracked client profile lives directly on the connection it describes.
+ */
+public interface ClientInfoHolder {
+    ViaBrandTracker.ClientInfo noviaversionkick$getClientInfo();
+
+    void noviaversionkick$setClientInfo(ViaBrandTracker.ClientInfo info);
+
+    UUID noviaversionkick$getPlayerId();
+
+    void noviaversionkick$setPlayerId(UUID playerId);
+}
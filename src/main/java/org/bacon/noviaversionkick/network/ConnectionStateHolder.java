@@ -0,0 +1,18 @@
+package org.bacon.noviaversionkick.network;
+
+/**
+ * Implemented on {@link net.minecraft.network.ClientConnection} by mixin so that the particle
+ * state attached to a connection can be dropped as soon as it disconnects and its size
+ * reported. Only used from the server thread.
+ */
+public interface ConnectionStateHolder {
+    /**
+     * Drops the coalescer, batch and trace of this connection.
+     */
+    void noviaversionkick$releaseState();
+
+    /**
+     * @return an approximation of the heap held by this connection's particle state
+     */
+    long noviaversionkick$estimateStateBytes();
+}
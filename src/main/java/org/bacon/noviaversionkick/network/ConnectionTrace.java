@@ -0,0 +1,213 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.network.ClientConnection;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fixed size rings of the most recent classification and encoding events for one connection,
+ * independent of the log level. Classification events and write events are kept in separate
+ * rings, so that a stream of particle writes never pushes the brand, mod list and decision out
+ * of the trace. Write events are only recorded when enabled in the configuration, and repeated
+ * writes of the same particle type are folded into one event. Slots are preallocated on the
+ * first event of each ring, so recording only stores primitives and existing references.
+ */
+public final class ConnectionTrace {
+    public enum Kind {
+        BRAND,
+        MOD_LIST,
+        PRESUMED,
+        DECISION,
+        LEGACY_WRITE,
+        SUPPRESSED_WRITE
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static volatile boolean enabled = true;
+    private static volatile boolean recordWrites = false;
+    private static volatile int capacity = 64;
+    private static volatile int writeCapacity = 64;
+
+    private final Ring decisions = new Ring();
+    private final Ring writes = new Ring();
+
+    public static void configure(NoviaversionkickConfig.Trace config) {
+        enabled = config.enabled && config.capacity > 0;
+        recordWrites = enabled && config.recordWrites && config.writeCapacity > 0;
+        capacity = Math.max(1, config.capacity);
+        writeCapacity = Math.max(1, config.writeCapacity);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return whether legacy and suppressed writes are recorded; checked by the encoder before
+     * it works out what to record
+     */
+    public static boolean isRecordingWrites() {
+        return recordWrites;
+    }
+
+    public static void record(ClientConnection connection, Kind kind, int first, int second, Object detail) {
+        if (!enabled || connection == null) {
+            return;
+        }
+        ((ConnectionTraceHolder) connection).noviaversionkick$getTrace().decisions.add(kind, first, second, detail, capacity, false);
+    }
+
+    public static void recordWrite(ClientConnection connection, boolean suppressed, int typeId, int count) {
+        if (!recordWrites || connection == null) {
+            return;
+        }
+        Kind kind = suppressed ? Kind.SUPPRESSED_WRITE : Kind.LEGACY_WRITE;
+        ((ConnectionTraceHolder) connection).noviaversionkick$getTrace().writes.add(kind, typeId, count, null, writeCapacity, true);
+    }
+
+    /**
+     * Releases the event slots; they are allocated again by the next event.
+     */
+    public void clear() {
+        this.decisions.clear();
+        this.writes.clear();
+    }
+
+    /**
+     * @return the approximate size of the event slots, excluding shared detail objects
+     */
+    public long retainedBytes() {
+        return this.decisions.retainedBytes() + this.writes.retainedBytes();
+    }
+
+    /**
+     * Formats the retained events of both rings, oldest first, with their age relative to now.
+     */
+    public List<String> dump() {
+        List<Event> decisionEvents = new ArrayList<>();
+        List<Event> writeEvents = new ArrayList<>();
+        long discardedDecisions = this.decisions.snapshot(decisionEvents);
+        long discardedWrites = this.writes.snapshot(writeEvents);
+        long now = System.currentTimeMillis();
+        List<String> lines = new ArrayList<>(decisionEvents.size() + writeEvents.size() + 2);
+        if (discardedDecisions > 0L) {
+            lines.add(discardedDecisions + " older classification events discarded");
+        }
+        if (discardedWrites > 0L) {
+            lines.add(discardedWrites + " older write events discarded");
+        }
+        int decision = 0;
+        int write = 0;
+        while (decision < decisionEvents.size() || write < writeEvents.size()) {
+            Event event;
+            if (write >= writeEvents.size()
+                || decision < decisionEvents.size() && decisionEvents.get(decision).time <= writeEvents.get(write).time) {
+                event = decisionEvents.get(decision++);
+            } else {
+                event = writeEvents.get(write++);
+            }
+            lines.add(String.format(Locale.ROOT, "-%.3fs %s", (now - event.time) / 1000.0D, event.text));
+        }
+        return lines;
+    }
+
+    private static String describe(Kind kind, int first, int second, Object detail, int repeats) {
+        return switch (kind) {
+            case BRAND -> "brand '" + detail + "'";
+            case MOD_LIST -> detail instanceof ViaBrandTracker.ClientInfo info
+                ? "mod list " + info.describeClientModCount() + " mods " + info.describeClientMods()
+                : "mod list cleared";
+            case PRESUMED -> "presumed " + (first != 0 ? "legacy" : "modern") + " from the classification cache";
+            case DECISION -> "decision " + (first != 0 ? "legacy" : "modern") + " by " + (second < 0 ? "default" : "rule " + second);
+            case LEGACY_WRITE -> "legacy write " + ParticleMetrics.Snapshot.typeName(first) + " count=" + second + repeated(repeats);
+            case SUPPRESSED_WRITE -> "suppressed write " + ParticleMetrics.Snapshot.typeName(first) + " count=" + second + repeated(repeats);
+        };
+    }
+
+    private static String repeated(int repeats) {
+        return repeats > 1 ? " x" + repeats : "";
+    }
+
+    private record Event(long time, String text) {
+    }
+
+    private static final class Ring {
+        private long[] times;
+        private byte[] kinds;
+        private int[] firsts;
+        private int[] seconds;
+        private int[] repeats;
+        private Object[] details;
+        private long recorded;
+
+        /**
+         * @param merge whether an event of the same kind and first value as the latest one is
+         *              added to it, summing the second values, instead of taking a new slot
+         */
+        private synchronized void add(Kind kind, int first, int second, Object detail, int size, boolean merge) {
+            if (this.times == null) {
+                this.times = new long[size];
+                this.kinds = new byte[size];
+                this.firsts = new int[size];
+                this.seconds = new int[size];
+                this.repeats = new int[size];
+                this.details = new Object[size];
+            }
+            long now = System.currentTimeMillis();
+            if (merge && this.recorded > 0L) {
+                int last = (int) ((this.recorded - 1L) % this.times.length);
+                if (this.kinds[last] == kind.ordinal() && this.firsts[last] == first) {
+                    this.times[last] = now;
+                    this.seconds[last] += second;
+                    this.repeats[last]++;
+                    return;
+                }
+            }
+            int slot = (int) (this.recorded % this.times.length);
+            this.times[slot] = now;
+            this.kinds[slot] = (byte) kind.ordinal();
+            this.firsts[slot] = first;
+            this.seconds[slot] = second;
+            this.repeats[slot] = 1;
+            this.details[slot] = detail;
+            this.recorded++;
+        }
+
+        private synchronized void clear() {
+            this.times = null;
+            this.kinds = null;
+            this.firsts = null;
+            this.seconds = null;
+            this.repeats = null;
+            this.details = null;
+            this.recorded = 0;
+        }
+
+        private synchronized long retainedBytes() {
+            // Six array headers, then a time, kind, three ints and a reference per slot
+            return this.times == null ? 0L : 6L * 16L + this.times.length * (8L + 1L + 4L + 4L + 4L + 4L);
+        }
+
+        /**
+         * Adds the retained events to {@code events}, oldest first.
+         *
+         * @return the number of events that were overwritten
+         */
+        private synchronized long snapshot(List<Event> events) {
+            if (this.times == null) {
+                return 0L;
+            }
+            int retained = (int) Math.min(this.recorded, this.times.length);
+            for (long index = this.recorded - retained; index < this.recorded; index++) {
+                int slot = (int) (index % this.times.length);
+                String text = describe(KINDS[this.kinds[slot]], this.firsts[slot], this.seconds[slot], this.details[slot], this.repeats[slot]);
+                events.add(new Event(this.times[slot], text));
+            }
+            return this.recorded - retained;
+        }
+    }
+}
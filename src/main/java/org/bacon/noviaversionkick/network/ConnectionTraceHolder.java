@@ -0,0 +1,9 @@
+package org.bacon.noviaversionkick.network;
+
+/**
+ * Implemented on {@link net.minecraft.network.ClientConnection} by mixin to give every
+ * connection its own {@link ConnectionTrace}.
+ */
+public interface ConnectionTraceHolder {
+    ConnectionTrace noviaversionkick$getTrace();
+}
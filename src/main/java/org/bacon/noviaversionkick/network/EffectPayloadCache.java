@@ -0,0 +1,119 @@
+package org.bacon.noviaversionkick.network;
+
+import com.google.gson.JsonObject;
+import net.minecraft.block.Block;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.particle.BlockStateParticleEffect;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.particle.SimpleParticleType;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.math.MathHelper;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encoded {@link ParticleTypes#PACKET_CODEC} output for the effects that dominate particle
+ * traffic: parameterless effects and block state effects. Entries live in a fixed size,
+ * direct-mapped table keyed by the raw type id and block state id, so lookups never lock and
+ * a colliding effect simply replaces the previous entry. Effects carrying other parameters,
+ * such as items or colours, are encoded as usual.
+ */
+public final class EffectPayloadCache {
+    private static final long UNCACHEABLE = -1L;
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder UNCACHED = new LongAdder();
+    private static volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(1024);
+
+    private EffectPayloadCache() {
+    }
+
+    public static void configure(NoviaversionkickConfig.EffectCache config) {
+        int capacity = config.enabled && config.capacity > 0 ? MathHelper.smallestEncompassingPowerOfTwo(Math.min(config.capacity, 1 << 20)) : 0;
+        AtomicReferenceArray<Entry> current = table;
+        if (capacity == 0) {
+            table = null;
+        } else if (current == null || current.length() != capacity) {
+            table = new AtomicReferenceArray<>(capacity);
+        }
+    }
+
+    /**
+     * Writes {@code effect} exactly as {@link ParticleTypes#PACKET_CODEC} would, from the cache
+     * when possible.
+     */
+    public static void encode(RegistryByteBuf buf, ParticleEffect effect) {
+        AtomicReferenceArray<Entry> entries = table;
+        long key = entries == null ? UNCACHEABLE : keyOf(effect);
+        if (key == UNCACHEABLE) {
+            UNCACHED.increment();
+            ParticleTypes.PACKET_CODEC.encode(buf, effect);
+            return;
+        }
+        int slot = (int) (mix(key) & (entries.length() - 1));
+        Entry entry = entries.get(slot);
+        if (entry != null && entry.key == key) {
+            HITS.increment();
+            buf.writeBytes(entry.bytes);
+            return;
+        }
+        MISSES.increment();
+        int start = buf.writerIndex();
+        ParticleTypes.PACKET_CODEC.encode(buf, effect);
+        byte[] bytes = new byte[buf.writerIndex() - start];
+        buf.getBytes(start, bytes);
+        entries.set(slot, new Entry(key, bytes));
+    }
+
+    public static long hits() {
+        return HITS.sum();
+    }
+
+    public static long misses() {
+        return MISSES.sum();
+    }
+
+    public static long uncached() {
+        return UNCACHED.sum();
+    }
+
+    public static void resetStatistics() {
+        HITS.reset();
+        MISSES.reset();
+        UNCACHED.reset();
+    }
+
+    public static JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("hits", hits());
+        json.addProperty("misses", misses());
+        json.addProperty("uncached", uncached());
+        AtomicReferenceArray<Entry> entries = table;
+        json.addProperty("capacity", entries == null ? 0 : entries.length());
+        return json;
+    }
+
+    private static long keyOf(ParticleEffect effect) {
+        int typeId = Registries.PARTICLE_TYPE.getRawId(effect.getType());
+        if (effect instanceof SimpleParticleType) {
+            return (long) typeId << 32;
+        }
+        if (effect instanceof BlockStateParticleEffect blockEffect) {
+            return (long) typeId << 32 | (Block.getRawIdFromState(blockEffect.getBlockState()) + 1L);
+        }
+        return UNCACHEABLE;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private record Entry(long key, byte[] bytes) {
+    }
+}
@@ -0,0 +1,32 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Resolves the client whose packet is currently being encoded.
+ *
+ * <p>Packets such as particles are broadcast as a single instance to many connections and
+ * encoded later on whichever event loop owns each channel, so the target cannot be stored
+ * on the packet. Instead {@link LegacyEncodingHandler}, which only sits in the pipeline of
+ * legacy connections, publishes its connection to a thread local for the duration of each
+ * write. Modern connections never set it. The load test's channels publish their simulated
+ * clients through the same handler.
+ */
+public final class EncodingContext {
+    private static final FastThreadLocal<ClientInfoHolder> CURRENT = new FastThreadLocal<>();
+
+    private EncodingContext() {
+    }
+
+    static void enter(ClientInfoHolder client) {
+        CURRENT.set(client);
+    }
+
+    static void exit() {
+        CURRENT.remove();
+    }
+
+    public static ClientInfoHolder current() {
+        return CURRENT.get();
+    }
+}
@@ -0,0 +1,127 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.BundlePacket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.mixin.ClientConnectionAccessor;
+import org.bacon.noviaversionkick.network.translate.PacketTranslator;
+import org.bacon.noviaversionkick.network.translate.PacketTranslators;
+
+import java.util.List;
+
+/**
+ * Outbound handler installed directly in front of the vanilla encoder of connections that
+ * use the legacy particle format, and removed again if the classification changes. Modern
+ * connections therefore encode through the unmodified vanilla pipeline.
+ */
+public final class LegacyEncodingHandler extends ChannelOutboundHandlerAdapter {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    private static final String NAME = "noviaversionkick_legacy";
+    static final String ENCODER = "encoder";
+
+    private final ClientInfoHolder client;
+
+    private LegacyEncodingHandler(ClientInfoHolder client) {
+        this.client = client;
+    }
+
+    /**
+     * Adds a handler publishing {@code client} directly in front of the pipeline's
+     * {@link #ENCODER}. Also used by the load test to drive its channels through this handler.
+     */
+    static void install(ChannelPipeline pipeline, ClientInfoHolder client) {
+        pipeline.addAfter(ENCODER, NAME, new LegacyEncodingHandler(client));
+    }
+
+    /**
+     * Installs or removes the handler to match the current classification of
+     * {@code connection}, and moves it back in front of the encoder if the pipeline was
+     * rearranged. Called on classification changes and on every outbound protocol transition,
+     * which replaces the encoder. The pipeline is changed on the channel's event loop so that
+     * it never races an in-flight write.
+     */
+    public static void update(ClientConnection connection) {
+        Channel channel = ((ClientConnectionAccessor) connection).noviaversionkick$getChannel();
+        if (channel == null) {
+            return;
+        }
+        if (channel.eventLoop().inEventLoop()) {
+            apply(connection, channel);
+        } else {
+            channel.eventLoop().execute(() -> apply(connection, channel));
+        }
+    }
+
+    private static void apply(ClientConnection connection, Channel channel) {
+        if (!channel.isOpen()) {
+            return;
+        }
+        // Read the decision here rather than at submission so that queued updates cannot apply a stale one
+        boolean legacy = ViaBrandTracker.shouldUseLegacyParticles(connection);
+        ChannelPipeline pipeline = channel.pipeline();
+        boolean installed = pipeline.get(NAME) != null;
+        if (!legacy) {
+            if (installed) {
+                pipeline.remove(NAME);
+            }
+            return;
+        }
+        if (pipeline.get(ENCODER) == null) {
+            if (installed) {
+                pipeline.remove(NAME);
+            }
+            if (connection.isLocal()) {
+                // In-memory connections pass packets as objects and never encode them
+                LOGGER.debug("Not installing the legacy encoding handler on {}: no encoder in the pipeline", connection.getAddress());
+            } else {
+                LOGGER.warn("Cannot install the legacy encoding handler on {}: no '{}' handler in the pipeline {}; particles will be sent in the modern format",
+                    connection.getAddress(), ENCODER, pipeline.names());
+            }
+            return;
+        }
+        if (installed) {
+            if (sitsInFrontOfEncoder(pipeline)) {
+                return;
+            }
+            // The encoder was removed and added again elsewhere rather than replaced in place
+            pipeline.remove(NAME);
+        }
+        install(pipeline, (ClientInfoHolder) connection);
+    }
+
+    private static boolean sitsInFrontOfEncoder(ChannelPipeline pipeline) {
+        List<String> names = pipeline.names();
+        int encoder = names.indexOf(ENCODER);
+        return encoder >= 0 && encoder + 1 < names.size() && NAME.equals(names.get(encoder + 1));
+    }
+
+    @Override
+    public void write(ChannelHandlerContext context, Object message, ChannelPromise promise) throws Exception {
+        if (!encodesPerConnection(message)) {
+            context.write(message, promise);
+            return;
+        }
+        // The encoder runs synchronously inside this call on the event loop
+        EncodingContext.enter(this.client);
+        try {
+            context.write(message, promise);
+        } finally {
+            EncodingContext.exit();
+        }
+    }
+
+    private static boolean encodesPerConnection(Object message) {
+        if (message instanceof BundlePacket<?>) {
+            // Split further down the pipeline when the unbundler sits between us and the encoder
+            return true;
+        }
+        PacketTranslator<?> translator = PacketTranslators.forPacket(message);
+        return translator != null && translator.encodesPerConnection();
+    }
+}
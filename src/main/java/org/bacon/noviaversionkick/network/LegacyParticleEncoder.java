@@ -0,0 +1,110 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.registry.Registries;
+
+/**
+ * Writes the body of a particle packet in the layout expected by clients behind a legacy
+ * translation layer, applying the current {@link ParticleRuleTable}. Kept free of mixin
+ * state so that it can be exercised outside a running game.
+ */
+public final class LegacyParticleEncoder {
+    private static final double SURFACE_THRESHOLD = 0.3D;
+    private static final double AXIS_EPSILON = 1.0E-6D;
+
+    private LegacyParticleEncoder() {
+    }
+
+    public static void write(RegistryByteBuf buf, ParticleEffect effect, boolean forceSpawn, double x, double y, double z, float offsetX, float offsetY, float offsetZ, float speed, int count) {
+        write(buf, effect, forceSpawn, x, y, z, offsetX, offsetY, offsetZ, speed, count, true);
+    }
+
+    /**
+     * @param cachedEffect whether the effect payload may be served by, and counted in,
+     *                     {@link EffectPayloadCache}; off for encodes that are not sends
+     */
+    public static void write(RegistryByteBuf buf, ParticleEffect effect, boolean forceSpawn, double x, double y, double z, float offsetX, float offsetY, float offsetZ, float speed, int count,
+                             boolean cachedEffect) {
+        if (effect == null) {
+            return;
+        }
+        ParticleRuleTable rules = ParticleRuleTable.get();
+        int particleTypeId = Registries.PARTICLE_TYPE.getRawId(effect.getType());
+        byte action = rules.action(particleTypeId, effect);
+        if (action == ParticleRuleTable.SUPPRESS) {
+            writeSuppressed(buf, rules.suppressFallbackId(), x, y, z);
+            return;
+        }
+        if (action == ParticleRuleTable.REMAP) {
+            effect = rules.remapTarget(particleTypeId);
+            particleTypeId = rules.remapTargetId(particleTypeId);
+        }
+        buf.writeVarInt(particleTypeId);
+        buf.writeBoolean(forceSpawn);
+        if (action == ParticleRuleTable.ALIGN) {
+            writeAlignedPosition(buf, x, y, z);
+        } else {
+            buf.writeDouble(x);
+            buf.writeDouble(y);
+            buf.writeDouble(z);
+        }
+        buf.writeFloat(offsetX);
+        buf.writeFloat(offsetY);
+        buf.writeFloat(offsetZ);
+        buf.writeFloat(speed);
+        buf.writeInt(count);
+        if (cachedEffect) {
+            EffectPayloadCache.encode(buf, effect);
+        } else {
+            ParticleTypes.PACKET_CODEC.encode(buf, effect);
+        }
+    }
+
+    public static void writeSuppressed(RegistryByteBuf buf, int fallbackId, double x, double y, double z) {
+        buf.writeVarInt(fallbackId);
+        buf.writeBoolean(false);
+        buf.writeDouble(x);
+        buf.writeDouble(y);
+        buf.writeDouble(z);
+        buf.writeFloat(0.0F);
+        buf.writeFloat(0.0F);
+        buf.writeFloat(0.0F);
+        buf.writeFloat(0.0F);
+        buf.writeInt(0);
+    }
+
+    public static void writeAlignedPosition(RegistryByteBuf buf, double x, double y, double z) {
+        double posX = x;
+        double posY = y;
+        double posZ = z;
+
+        double baseX = Math.floor(posX);
+        double baseY = Math.floor(posY);
+        double baseZ = Math.floor(posZ);
+
+        double fractionalX = posX - baseX;
+        double fractionalY = posY - baseY;
+        double fractionalZ = posZ - baseZ;
+
+        double distanceX = Math.min(fractionalX, 1.0D - fractionalX);
+        double distanceY = Math.min(fractionalY, 1.0D - fractionalY);
+        double distanceZ = Math.min(fractionalZ, 1.0D - fractionalZ);
+
+        double nearest = Math.min(distanceX, Math.min(distanceY, distanceZ));
+        if (nearest <= SURFACE_THRESHOLD) {
+            if (distanceX <= nearest + AXIS_EPSILON) {
+                posX = baseX + (fractionalX < 0.5D ? 0.0D : 1.0D);
+            } else if (distanceY <= nearest + AXIS_EPSILON) {
+                posY = baseY + (fractionalY < 0.5D ? 0.0D : 1.0D);
+            } else {
+                posZ = baseZ + (fractionalZ < 0.5D ? 0.0D : 1.0D);
+            }
+        }
+
+        buf.writeDouble(posX);
+        buf.writeDouble(posY);
+        buf.writeDouble(posZ);
+    }
+}
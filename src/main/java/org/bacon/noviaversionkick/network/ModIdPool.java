@@ -0,0 +1,67 @@
+package org.bacon.noviaversionkick.network;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global pool mapping each normalised mod id to a small integer, so that client profiles can
+ * store their mod lists as bitsets instead of per-player string sets. Ids are never reused;
+ * once {@link #MAX_IDS} distinct mods have been seen new ids are no longer interned, which
+ * bounds the pool against clients reporting random mod ids. Callers additionally limit how
+ * many new ids a single mod list may add, so that a handful of hostile clients cannot fill
+ * the pool for every later one.
+ */
+public final class ModIdPool {
+    static final int MAX_IDS = 16384;
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static final Object LOCK = new Object();
+    private static volatile String[] names = new String[256];
+    private static int size;
+
+    private ModIdPool() {
+    }
+
+    /**
+     * @return the id of {@code modId}, or {@code -1} if it is not pooled yet
+     */
+    public static int lookup(String modId) {
+        Integer id = IDS.get(modId);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the id of {@code modId}, or {@code -1} if the pool is full
+     */
+    public static int intern(String modId) {
+        Integer id = IDS.get(modId);
+        if (id != null) {
+            return id;
+        }
+        synchronized (LOCK) {
+            id = IDS.get(modId);
+            if (id != null) {
+                return id;
+            }
+            if (size >= MAX_IDS) {
+                return -1;
+            }
+            int next = size++;
+            String[] currentNames = names;
+            if (next >= currentNames.length) {
+                currentNames = Arrays.copyOf(currentNames, currentNames.length * 2);
+            }
+            currentNames[next] = modId;
+            names = currentNames;
+            IDS.put(modId, next);
+            return next;
+        }
+    }
+
+    public static String name(int id) {
+        return names[id];
+    }
+
+    public static int size() {
+        return IDS.size();
+    }
+}
@@ -0,0 +1,184 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Parses the Fabric mod list login payload in place, without copying the buffer or moving its
+ * reader index. Three layouts are seen in the wild:
+ * <ol>
+ *     <li>a handshake version (0-5), an entry count and {@code (id, version)} string pairs;</li>
+ *     <li>an entry count followed by that many ids;</li>
+ *     <li>ids back to back until the payload or an empty string ends the list.</li>
+ * </ol>
+ * Each layout is validated structurally (varints and string lengths against the readable
+ * bytes) before any string is decoded, so malformed payloads are rejected without throwing,
+ * and the entry, string and payload budgets bound the work done for a hostile client.
+ */
+public final class ModListParser {
+    static final int MAX_PAYLOAD_BYTES = 64 * 1024;
+    static final int MAX_ENTRIES = 1024;
+    static final int MAX_STRING_BYTES = 1024;
+    private static final int MAX_HANDSHAKE_VERSION = 5;
+    private static final int INVALID = -1;
+
+    private ModListParser() {
+    }
+
+    /**
+     * @return the lower-cased, trimmed mod ids, or an empty list if the payload is empty,
+     * malformed or over budget
+     */
+    public static List<String> parse(ByteBuf buf) {
+        int start = buf.readerIndex();
+        int end = buf.writerIndex();
+        if (end - start > MAX_PAYLOAD_BYTES) {
+            return List.of();
+        }
+        List<String> modIds = parseVersioned(buf, start, end);
+        if (modIds.isEmpty()) {
+            modIds = parseCounted(buf, start, end);
+        }
+        if (modIds.isEmpty()) {
+            modIds = parseSequence(buf, start, end);
+        }
+        return modIds;
+    }
+
+    private static List<String> parseVersioned(ByteBuf buf, int start, int end) {
+        Cursor cursor = new Cursor(buf, start, end);
+        int version = cursor.varInt();
+        if (version < 0 || version > MAX_HANDSHAKE_VERSION) {
+            return List.of();
+        }
+        int count = cursor.varInt();
+        if (count <= 0 || count > MAX_ENTRIES) {
+            return List.of();
+        }
+        int entries = cursor.index;
+        for (int i = 0; i < count; i++) {
+            if (!cursor.skipString() || (cursor.hasRemaining() && !cursor.skipString())) {
+                return List.of();
+            }
+        }
+
+        List<String> modIds = new ArrayList<>(count);
+        cursor.index = entries;
+        for (int i = 0; i < count; i++) {
+            addModId(modIds, cursor.string());
+            if (cursor.hasRemaining()) {
+                cursor.skipString();
+            }
+        }
+        return modIds;
+    }
+
+    private static List<String> parseCounted(ByteBuf buf, int start, int end) {
+        Cursor cursor = new Cursor(buf, start, end);
+        int count = cursor.varInt();
+        if (count <= 0 || count > MAX_ENTRIES) {
+            return List.of();
+        }
+        int entries = cursor.index;
+        for (int i = 0; i < count; i++) {
+            if (!cursor.skipString()) {
+                return List.of();
+            }
+        }
+
+        List<String> modIds = new ArrayList<>(count);
+        cursor.index = entries;
+        for (int i = 0; i < count; i++) {
+            addModId(modIds, cursor.string());
+        }
+        return modIds;
+    }
+
+    private static List<String> parseSequence(ByteBuf buf, int start, int end) {
+        Cursor cursor = new Cursor(buf, start, end);
+        Set<String> modIds = new LinkedHashSet<>();
+        for (int entries = 0; entries < MAX_ENTRIES && cursor.hasRemaining(); entries++) {
+            int stringStart = cursor.index;
+            if (!cursor.skipString()) {
+                // Keep whatever was read before the malformed tail
+                break;
+            }
+            int stringEnd = cursor.index;
+            cursor.index = stringStart;
+            String modId = cursor.string();
+            cursor.index = stringEnd;
+            if (modId.isBlank()) {
+                break;
+            }
+            modIds.add(modId.trim().toLowerCase(Locale.ROOT));
+        }
+        return new ArrayList<>(modIds);
+    }
+
+    private static void addModId(List<String> modIds, String raw) {
+        String modId = raw.trim();
+        if (!modId.isEmpty()) {
+            modIds.add(modId.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static final class Cursor {
+        private final ByteBuf buf;
+        private final int end;
+        private int index;
+
+        private Cursor(ByteBuf buf, int start, int end) {
+            this.buf = buf;
+            this.index = start;
+            this.end = end;
+        }
+
+        boolean hasRemaining() {
+            return this.index < this.end;
+        }
+
+        /**
+         * @return the decoded non-negative varint, or {@link #INVALID} if it is truncated,
+         * longer than five bytes or negative
+         */
+        int varInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (this.index >= this.end) {
+                    return INVALID;
+                }
+                byte b = this.buf.getByte(this.index++);
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value < 0 ? INVALID : value;
+                }
+            }
+            return INVALID;
+        }
+
+        boolean skipString() {
+            int length = varInt();
+            if (length < 0 || length > MAX_STRING_BYTES || length > this.end - this.index) {
+                return false;
+            }
+            this.index += length;
+            return true;
+        }
+
+        /**
+         * Decodes a string that has already been validated with {@link #skipString()}.
+         */
+        String string() {
+            int length = varInt();
+            String value = this.buf.toString(this.index, length, StandardCharsets.UTF_8);
+            this.index += length;
+            return value;
+        }
+    }
+}
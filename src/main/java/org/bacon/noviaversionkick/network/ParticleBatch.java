@@ -0,0 +1,76 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.listener.ClientPlayPacketListener;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.s2c.play.BundleS2CPacket;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Particle packets that passed every filter for one connection during a tick, sent together
+ * as a single bundle with one flush. The pipeline still writes the bundle delimiters and each
+ * packet as separate frames; only the flushes are saved. Only touched from the server thread.
+ */
+public final class ParticleBatch {
+    /** Vanilla clients disconnect on bundles with more packets than this. */
+    static final int MAX_BUNDLE_SIZE = 4096;
+
+    private final List<Packet<? super ClientPlayPacketListener>> packets = new ArrayList<>();
+    // Whether the connection is listed for the end of tick send
+    private boolean queued;
+
+    boolean isEmpty() {
+        return this.packets.isEmpty();
+    }
+
+    int size() {
+        return this.packets.size();
+    }
+
+    /**
+     * @return the approximate size of the batch, excluding the shared packets
+     */
+    public long retainedBytes() {
+        return 32L + this.packets.size() * 4L;
+    }
+
+    /**
+     * Marks the batch as listed for the end of tick send.
+     *
+     * @return {@code false} if it already was
+     */
+    boolean enqueue() {
+        if (this.queued) {
+            return false;
+        }
+        this.queued = true;
+        return true;
+    }
+
+    void dequeue() {
+        this.queued = false;
+    }
+
+    void add(ParticleS2CPacket packet) {
+        this.packets.add(packet);
+    }
+
+    /**
+     * Sends the buffered packets, as a bundle if there is more than one, and empties the batch.
+     *
+     * @return the number of packets sent
+     */
+    int send(ClientConnection connection) {
+        int size = this.packets.size();
+        if (size == 1) {
+            connection.send(this.packets.get(0));
+        } else if (size > 1) {
+            connection.send(new BundleS2CPacket(List.copyOf(this.packets)));
+        }
+        this.packets.clear();
+        return size;
+    }
+}
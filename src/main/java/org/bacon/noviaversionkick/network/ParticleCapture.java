@@ -0,0 +1,285 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.registry.DynamicRegistryManager;
+import net.minecraft.registry.Registries;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the particle packets sent to selected connections, together with each client's
+ * brand and mod list, into a gzip compressed trace for offline replay.
+ *
+ * <p>The trace is a header followed by tagged records. A connection record is written before
+ * the first packet of a connection and again whenever its profile changes; a packet record
+ * holds the modern encoding of the packet and, for legacy connections, the bytes our encoder
+ * produces for it. Packets are taken once, when they are first sent and before culling,
+ * coalescing or backpressure; packets in the hold queue are taken when they are released, in
+ * the encoding their connection then has. They are encoded and written on a background thread, bypassing the write
+ * hook and {@link EffectPayloadCache} so that capturing neither touches the packet's byte cache
+ * nor counts as a write in the metrics or as a lookup in the cache statistics; when that
+ * thread falls behind, packets are dropped and counted rather than slowing the sender.
+ */
+public final class ParticleCapture {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    static final int MAGIC = 0x4E564B50;
+    static final int VERSION = 1;
+    static final byte CONNECTION_RECORD = 1;
+    static final byte PACKET_RECORD = 2;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static volatile Session session;
+
+    private ParticleCapture() {
+    }
+
+    /**
+     * Starts capturing the particle packets sent to {@code connections}.
+     *
+     * @return the trace file, or {@code null} if a capture is already running
+     */
+    public static synchronized Path start(Collection<ClientConnection> connections, DynamicRegistryManager registries,
+                                          NoviaversionkickConfig.Capture config) throws IOException {
+        if (session != null) {
+            return null;
+        }
+        Path directory = FabricLoader.getInstance().getGameDir().resolve(config.directory);
+        Files.createDirectories(directory);
+        Path path = directory.resolve("particles-" + LocalDateTime.now().format(FILE_TIME) + ".nvkp");
+        Session started = new Session(path, registries, Math.max(1, config.queueCapacity), Math.max(1L, config.maxPackets));
+        for (ClientConnection connection : connections) {
+            started.targets.put(connection, new Target(started.nextId.getAndIncrement()));
+        }
+        started.writer.start();
+        session = started;
+        LOGGER.info("Capturing particle packets of {} connections to {}", connections.size(), path);
+        return path;
+    }
+
+    /**
+     * Stops the running capture and waits for queued packets to be written.
+     *
+     * @return a description of the finished capture, or {@code null} if none was running
+     */
+    public static synchronized String stop() {
+        Session stopped = session;
+        if (stopped == null) {
+            return null;
+        }
+        session = null;
+        stopped.close();
+        String summary = stopped.describe();
+        LOGGER.info("Particle capture finished: {}", summary);
+        return summary;
+    }
+
+    public static boolean isActive() {
+        return session != null;
+    }
+
+    /**
+     * @return a description of the running capture, or {@code null} if none is running
+     */
+    public static String status() {
+        Session current = session;
+        return current == null ? null : current.describe();
+    }
+
+    /**
+     * Stops capturing {@code connection}, which has disconnected.
+     */
+    static void forget(ClientConnection connection) {
+        Session current = session;
+        if (current != null) {
+            current.targets.remove(connection);
+        }
+    }
+
+    public static void record(ClientConnection connection, ParticleS2CPacket packet) {
+        Session current = session;
+        if (current == null || connection == null) {
+            return;
+        }
+        Target target = current.targets.get(connection);
+        if (target == null) {
+            return;
+        }
+        if (current.accepted.incrementAndGet() > current.maxPackets) {
+            current.accepted.decrementAndGet();
+            current.dropped.incrementAndGet();
+            return;
+        }
+        ViaBrandTracker.ClientInfo info = ((ClientInfoHolder) connection).noviaversionkick$getClientInfo();
+        boolean legacy = ViaBrandTracker.shouldUseLegacyParticles(connection);
+        if (!current.queue.offer(new Captured(target, info, legacy, packet, System.nanoTime()))) {
+            current.accepted.decrementAndGet();
+            current.dropped.incrementAndGet();
+        }
+    }
+
+    private record Captured(Target target, ViaBrandTracker.ClientInfo info, boolean legacy, ParticleS2CPacket packet, long nanos) {
+    }
+
+    private static final class Target {
+        private final int id;
+        // Writer thread only
+        private ViaBrandTracker.ClientInfo written;
+        private boolean announced;
+
+        private Target(int id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Session {
+        private static final Captured STOP = new Captured(null, null, false, null, 0L);
+
+        private final Path path;
+        private final DynamicRegistryManager registries;
+        private final BlockingQueue<Captured> queue;
+        private final long maxPackets;
+        private final Map<ClientConnection, Target> targets = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+        private final Thread writer;
+        private volatile boolean failed;
+
+        private Session(Path path, DynamicRegistryManager registries, int queueCapacity, long maxPackets) {
+            this.path = path;
+            this.registries = registries;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.maxPackets = maxPackets;
+            this.writer = new Thread(this::write, "Noviaversionkick Particle Capture");
+            this.writer.setDaemon(true);
+        }
+
+        private void write() {
+            ByteBuf scratch = Unpooled.buffer();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(this.path)), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(System.currentTimeMillis());
+                // Replay warns when its registry assigns particle ids differently
+                out.writeInt(Registries.PARTICLE_TYPE.size());
+                while (true) {
+                    Captured captured = this.queue.take();
+                    if (captured == STOP) {
+                        break;
+                    }
+                    this.writeCaptured(out, captured, scratch);
+                    this.written.incrementAndGet();
+                }
+            } catch (IOException | RuntimeException exception) {
+                this.failed = true;
+                LOGGER.warn("Failed to write particle capture {}", this.path, exception);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            } finally {
+                scratch.release();
+            }
+        }
+
+        private void writeCaptured(DataOutputStream out, Captured captured, ByteBuf scratch) throws IOException {
+            Target target = captured.target;
+            if (!target.announced || target.written != captured.info) {
+                target.announced = true;
+                target.written = captured.info;
+                out.writeByte(CONNECTION_RECORD);
+                out.writeInt(target.id);
+                writeString(out, captured.info == null ? null : captured.info.brand());
+                List<String> mods = captured.info == null ? List.of() : captured.info.clientMods();
+                out.writeInt(mods.size());
+                for (String mod : mods) {
+                    out.writeUTF(mod);
+                }
+            }
+            out.writeByte(PACKET_RECORD);
+            out.writeInt(target.id);
+            out.writeLong(captured.nanos - this.startNanos);
+            out.writeBoolean(captured.legacy);
+            writeBytes(out, this.encode(captured.packet, false, scratch));
+            if (captured.legacy) {
+                writeBytes(out, this.encode(captured.packet, true, scratch));
+            }
+        }
+
+        /**
+         * Encodes {@code packet} in the format, producing the bytes sent for it, with the
+         * effect payload encoded directly.
+         */
+        private byte[] encode(ParticleS2CPacket packet, boolean legacy, ByteBuf scratch) {
+            scratch.clear();
+            RegistryByteBuf buf = new RegistryByteBuf(scratch, this.registries);
+            if (legacy) {
+                LegacyParticleEncoder.write(buf, packet.getParameters(), packet.shouldForceSpawn(), packet.getX(), packet.getY(), packet.getZ(),
+                    packet.getOffsetX(), packet.getOffsetY(), packet.getOffsetZ(), packet.getSpeed(), packet.getCount(), false);
+            } else {
+                ParticleWriter.writeModern(buf, packet.getParameters(), packet.shouldForceSpawn(), packet.isImportant(), packet.getX(), packet.getY(), packet.getZ(),
+                    packet.getOffsetX(), packet.getOffsetY(), packet.getOffsetZ(), packet.getSpeed(), packet.getCount(), false);
+            }
+            return ByteBufUtil.getBytes(scratch);
+        }
+
+        private void close() {
+            try {
+                // The writer is gone after a failure and no longer drains the queue
+                if (this.failed || !this.queue.offer(STOP, 10, TimeUnit.SECONDS)) {
+                    this.writer.interrupt();
+                }
+                this.writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            if (this.writer.isAlive()) {
+                LOGGER.warn("Timed out finishing particle capture {}", this.path);
+                this.writer.interrupt();
+            }
+        }
+
+        private String describe() {
+            return this.path.getFileName() + ": " + this.targets.size() + " connections, " + this.written.get() + " packets written, "
+                + Math.max(0L, this.accepted.get() - this.written.get()) + " queued, " + this.dropped.get() + " dropped"
+                + (this.failed ? ", write failed" : "");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,111 @@
+package org.bacon.noviaversionkick.network;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.math.MathHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Buffers the particle packets sent to one connection during a tick and merges duplicates:
+ * packets with the same effect, spread and speed whose positions fall into the same quantised
+ * cell become a single packet carrying the summed count. Only touched from the server thread.
+ */
+public final class ParticleCoalescer {
+    private final Long2ObjectOpenHashMap<Entry> entries = new Long2ObjectOpenHashMap<>();
+    private final List<Entry> order = new ArrayList<>();
+    private int merged;
+
+    /**
+     * @return {@code false} if the packet could not be buffered and should be sent directly
+     */
+    public boolean offer(ParticleS2CPacket packet, double quantum, int maxEntries) {
+        int count = packet.getCount();
+        if (count <= 0) {
+            // Zero counts are single directional particles whose offsets are a velocity
+            return false;
+        }
+        int cellX = MathHelper.floor(packet.getX() / quantum);
+        int cellY = MathHelper.floor(packet.getY() / quantum);
+        int cellZ = MathHelper.floor(packet.getZ() / quantum);
+        int typeId = Registries.PARTICLE_TYPE.getRawId(packet.getParameters().getType());
+        long key = key(typeId, cellX, cellY, cellZ);
+
+        Entry head = this.entries.get(key);
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            if (entry.cellX == cellX && entry.cellY == cellY && entry.cellZ == cellZ
+                && ((ParticlePacketView) entry.packet).noviaversionkick$canMergeWith(packet)) {
+                entry.count = (int) Math.min(Integer.MAX_VALUE, (long) entry.count + count);
+                this.merged++;
+                return true;
+            }
+        }
+        if (this.order.size() >= maxEntries) {
+            return false;
+        }
+        Entry entry = new Entry(packet, cellX, cellY, cellZ, count, head);
+        this.entries.put(key, entry);
+        this.order.add(entry);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return this.order.isEmpty();
+    }
+
+    /**
+     * @return the approximate size of the buffered entries, excluding the shared packets
+     */
+    public long retainedBytes() {
+        // Entry object, hash table slot and order list reference per buffered packet
+        return 64L + this.order.size() * (40L + 16L + 4L);
+    }
+
+    /**
+     * Hands every buffered packet to {@code sender} in the order it was first offered and
+     * resets the buffer.
+     *
+     * @return the number of packets that were merged away
+     */
+    public int drain(Consumer<ParticleS2CPacket> sender) {
+        for (Entry entry : this.order) {
+            ParticleS2CPacket packet = entry.packet;
+            sender.accept(entry.count == packet.getCount() ? packet : ((ParticlePacketView) packet).noviaversionkick$withCount(entry.count));
+        }
+        int merged = this.merged;
+        this.entries.clear();
+        this.order.clear();
+        this.merged = 0;
+        return merged;
+    }
+
+    private static long key(int typeId, int cellX, int cellY, int cellZ) {
+        // 22 bits per horizontal axis, 12 for the vertical axis and 8 for the low bits of the type;
+        // collisions are resolved by comparing the full cell and effect
+        return ((long) (cellX & 0x3FFFFF) << 42)
+            | ((long) (cellZ & 0x3FFFFF) << 20)
+            | ((long) (cellY & 0xFFF) << 8)
+            | (typeId & 0xFF);
+    }
+
+    private static final class Entry {
+        private final ParticleS2CPacket packet;
+        private final int cellX;
+        private final int cellY;
+        private final int cellZ;
+        private final Entry next;
+        private int count;
+
+        private Entry(ParticleS2CPacket packet, int cellX, int cellY, int cellZ, int count, Entry next) {
+            this.packet = packet;
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.cellZ = cellZ;
+            this.count = count;
+            this.next = next;
+        }
+    }
+}
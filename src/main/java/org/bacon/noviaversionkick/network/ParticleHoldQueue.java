@@ -0,0 +1,101 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Particle packets held back from connections that have not been classified yet. Only used
+ * from the server thread.
+ *
+ * <p>When the per-connection cap is reached, the oldest packet of that connection makes room.
+ * When the global cap is reached, the oldest packet of the connection that has been held the
+ * longest makes room, so a connection that has only just started being held does not lose its
+ * packets to older queues.
+ */
+final class ParticleHoldQueue {
+    // In the order connections started being held
+    private final Map<ClientConnection, Held> held = new LinkedHashMap<>();
+    private int totalHeld;
+    private long tick;
+
+    void hold(ClientConnection connection, ParticleS2CPacket packet, NoviaversionkickConfig.HoldQueue config) {
+        Held queue = this.held.get(connection);
+        if (queue == null) {
+            queue = new Held(this.tick);
+            this.held.put(connection, queue);
+        }
+        boolean connectionFull = queue.packets.size() >= config.maxPacketsPerConnection;
+        if (connectionFull || this.totalHeld >= config.maxPacketsTotal) {
+            ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.HOLD_EVICTED_PACKETS, false, 1);
+            Held victim = connectionFull ? queue : this.oldest();
+            if (!config.dropOldest || victim == null || victim.packets.isEmpty()) {
+                return;
+            }
+            victim.packets.pollFirst();
+            this.totalHeld--;
+        }
+        queue.packets.addLast(packet);
+        this.totalHeld++;
+    }
+
+    /**
+     * @return the queue held the longest that still holds a packet, or {@code null}
+     */
+    private Held oldest() {
+        for (Held queue : this.held.values()) {
+            if (!queue.packets.isEmpty()) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Advances the tick counter and hands the packets of every connection that has been
+     * classified, or has waited {@code timeoutTicks}, to {@code release} in their original
+     * order. Queues of closed connections are discarded.
+     */
+    void tick(int timeoutTicks, BiConsumer<ClientConnection, ParticleS2CPacket> release) {
+        this.tick++;
+        if (this.held.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<ClientConnection, Held>> iterator = this.held.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ClientConnection, Held> entry = iterator.next();
+            ClientConnection connection = entry.getKey();
+            Held queue = entry.getValue();
+            if (!connection.isOpen()) {
+                iterator.remove();
+                this.totalHeld -= queue.packets.size();
+                continue;
+            }
+            if (!ViaBrandTracker.isClassified(connection) && this.tick - queue.since < timeoutTicks) {
+                continue;
+            }
+            iterator.remove();
+            this.totalHeld -= queue.packets.size();
+            ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.HELD_PACKETS, ViaBrandTracker.shouldUseLegacyParticles(connection), queue.packets.size());
+            for (ParticleS2CPacket packet : queue.packets) {
+                release.accept(connection, packet);
+            }
+        }
+    }
+
+    private static final class Held {
+        private final ArrayDeque<ParticleS2CPacket> packets = new ArrayDeque<>();
+        private final long since;
+
+        private Held(long since) {
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+
+/**
+ * Implemented on {@link ParticleS2CPacket} by mixin. Packets are shared between recipients,
+ * so per-recipient adjustments always produce a copy instead of mutating the original.
+ */
+public interface ParticlePacketView {
+    ParticleS2CPacket noviaversionkick$withCount(int count);
+
+    /**
+     * @return whether {@code other} spawns the same effect with the same spread, speed and
+     * visibility flags, so that the two packets only differ in position and count
+     */
+    boolean noviaversionkick$canMergeWith(ParticleS2CPacket other);
+}
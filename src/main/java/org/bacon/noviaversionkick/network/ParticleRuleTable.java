@@ -0,0 +1,163 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.particle.BlockStateParticleEffect;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.particle.ParticleType;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.particle.SimpleParticleType;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.Identifier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Legacy particle handling for every registered particle type, indexed by raw id so that the
+ * write path only needs a single array load. Built when the server starts and rebuilt when
+ * data packs are reloaded.
+ */
+public final class ParticleRuleTable {
+    public static final byte PASS = 0;
+    public static final byte SUPPRESS = 1;
+    public static final byte REMAP = 2;
+    public static final byte ALIGN = 3;
+
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    private static volatile ParticleRuleTable current = new ParticleRuleTable(new byte[0], new SimpleParticleType[0], new int[0], null, -1, true);
+
+    private final byte[] actions;
+    private final SimpleParticleType[] remapTargets;
+    private final int[] remapIds;
+    private final SimpleParticleType suppressFallback;
+    private final int suppressFallbackId;
+    private final boolean alignBlockStateEffects;
+
+    private ParticleRuleTable(byte[] actions, SimpleParticleType[] remapTargets, int[] remapIds, SimpleParticleType suppressFallback, int suppressFallbackId, boolean alignBlockStateEffects) {
+        this.actions = actions;
+        this.remapTargets = remapTargets;
+        this.remapIds = remapIds;
+        this.suppressFallback = suppressFallback;
+        this.suppressFallbackId = suppressFallbackId;
+        this.alignBlockStateEffects = alignBlockStateEffects;
+    }
+
+    public static ParticleRuleTable get() {
+        return current;
+    }
+
+    public static void rebuild(NoviaversionkickConfig.ParticleRules rules) {
+        int size = Registries.PARTICLE_TYPE.size();
+        byte[] actions = new byte[size];
+        SimpleParticleType[] remapTargets = new SimpleParticleType[size];
+        int[] remapIds = new int[size];
+
+        for (String pattern : rules.alignToBlockFace) {
+            apply(actions, pattern, ALIGN);
+        }
+        for (Map.Entry<String, String> entry : rules.remap.entrySet()) {
+            SimpleParticleType target = resolveSimple(entry.getValue());
+            if (target == null) {
+                LOGGER.warn("Ignoring particle remap {} -> {}: target must be a parameterless particle type", entry.getKey(), entry.getValue());
+                continue;
+            }
+            int targetId = Registries.PARTICLE_TYPE.getRawId(target);
+            for (int rawId : matching(entry.getKey())) {
+                actions[rawId] = REMAP;
+                remapTargets[rawId] = target;
+                remapIds[rawId] = targetId;
+            }
+        }
+        for (String pattern : rules.suppress) {
+            apply(actions, pattern, SUPPRESS);
+        }
+
+        SimpleParticleType fallback = resolveSimple(rules.suppressFallback);
+        if (fallback == null) {
+            LOGGER.warn("Unknown or parameterised suppression fallback '{}'; using minecraft:poof", rules.suppressFallback);
+            fallback = ParticleTypes.POOF;
+        }
+        current = new ParticleRuleTable(actions, remapTargets, remapIds, fallback, Registries.PARTICLE_TYPE.getRawId(fallback), rules.alignBlockStateEffects);
+        LOGGER.debug("Built particle rule table for {} particle types", size);
+    }
+
+    public byte action(int rawId) {
+        byte[] actions = this.actions;
+        return rawId >= 0 && rawId < actions.length ? actions[rawId] : PASS;
+    }
+
+    /**
+     * Like {@link #action(int)}, but also aligns block state effects of types without a rule,
+     * which covers modded block particles whose ids are not listed.
+     */
+    public byte action(int rawId, ParticleEffect effect) {
+        byte action = this.action(rawId);
+        if (action == PASS && this.alignBlockStateEffects && effect instanceof BlockStateParticleEffect) {
+            return ALIGN;
+        }
+        return action;
+    }
+
+    public SimpleParticleType remapTarget(int rawId) {
+        return this.remapTargets[rawId];
+    }
+
+    public int remapTargetId(int rawId) {
+        return this.remapIds[rawId];
+    }
+
+    /**
+     * @return the particle sent in place of suppressed ones, or {@code null} before the first build
+     */
+    public SimpleParticleType suppressFallback() {
+        return this.suppressFallback;
+    }
+
+    public int suppressFallbackId() {
+        return this.suppressFallbackId;
+    }
+
+    private static void apply(byte[] actions, String pattern, byte action) {
+        for (int rawId : matching(pattern)) {
+            actions[rawId] = action;
+        }
+    }
+
+    private static int[] matching(String pattern) {
+        if (pattern == null || pattern.isBlank()) {
+            return new int[0];
+        }
+        String trimmed = pattern.trim();
+        boolean prefix = trimmed.endsWith("*");
+        String body = prefix ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+        boolean fullId = body.indexOf(':') >= 0;
+
+        int[] result = new int[Registries.PARTICLE_TYPE.size()];
+        int matches = 0;
+        for (ParticleType<?> type : Registries.PARTICLE_TYPE) {
+            Identifier id = Registries.PARTICLE_TYPE.getId(type);
+            if (id == null) {
+                continue;
+            }
+            String candidate = fullId ? id.toString() : id.getPath();
+            if (prefix ? candidate.startsWith(body) : candidate.equals(body)) {
+                result[matches++] = Registries.PARTICLE_TYPE.getRawId(type);
+            }
+        }
+        if (matches == 0) {
+            LOGGER.warn("Particle rule pattern '{}' does not match any registered particle type", pattern);
+        }
+        return Arrays.copyOf(result, matches);
+    }
+
+    private static SimpleParticleType resolveSimple(String id) {
+        Identifier identifier = id == null ? null : Identifier.tryParse(id.trim());
+        if (identifier == null) {
+            return null;
+        }
+        ParticleType<?> type = Registries.PARTICLE_TYPE.getOptionalValue(identifier).orElse(null);
+        return type instanceof SimpleParticleType simple ? simple : null;
+    }
+}
@@ -0,0 +1,331 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.server.network.ServerPlayNetworkHandler;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.math.Vec3d;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+import org.bacon.noviaversionkick.mixin.ClientConnectionAccessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-recipient adjustments applied to particle packets as they are handed to a connection,
+ * before they are queued for encoding. Other packet types never pass through here.
+ *
+ * <p>Stages that read player state or keep per-tick buffers run in {@link #filterOnSend} on
+ * the server thread, before vanilla hands the packet to the channel's event loop. Stages that
+ * only read channel state run in {@link #filterOnEventLoop}, which is always on the event loop.
+ */
+public final class ParticleSendFilter {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    private static final int STAGE_CHECK_TICKS = 1200;
+    // Connections with buffered particles this tick; only touched from the server thread
+    private static final List<ClientConnection> PENDING = new ArrayList<>();
+    // Connections with a non-empty particle batch this tick; only touched from the server thread
+    private static final List<ClientConnection> BATCHED = new ArrayList<>();
+    private static final ParticleHoldQueue HOLD_QUEUE = new ParticleHoldQueue();
+    private static volatile Thread serverThread;
+    private static boolean flushing;
+    private static boolean releasing;
+    private static boolean sendingBatches;
+    private static volatile boolean serverStagesReached;
+    private static volatile boolean eventLoopStagesReached;
+    private static int stageCheckTicks;
+    private static boolean stagesChecked;
+
+    private ParticleSendFilter() {
+    }
+
+    /**
+     * Applies the server thread stages. Called on the sending thread from
+     * {@code ClientConnection.send}; packets sent from any other thread pass unchanged.
+     *
+     * @return the packet to send in place of {@code packet}, or {@code null} to drop it
+     */
+    public static ParticleS2CPacket filterOnSend(ClientConnection connection, ParticleS2CPacket packet) {
+        if (Thread.currentThread() != serverThread) {
+            if (ParticleCapture.isActive()) {
+                ParticleCapture.record(connection, packet);
+            }
+            return packet;
+        }
+        serverStagesReached = true;
+        if (sendingBatches) {
+            // Batched packets already passed every stage
+            return packet;
+        }
+        NoviaversionkickConfig config = NoviaversionkickConfig.get();
+        if (config.holdQueue.enabled && !releasing && !flushing && !ViaBrandTracker.isClassified(connection)) {
+            HOLD_QUEUE.hold(connection, packet, config.holdQueue);
+            return null;
+        }
+        // Held packets are captured on release, once their encoding is known; flushed and batched ones were captured on send
+        if (ParticleCapture.isActive() && !flushing) {
+            ParticleCapture.record(connection, packet);
+        }
+        if (config.culling.enabled && !flushing) {
+            packet = applyCulling(connection, packet, config.culling);
+            if (packet == null) {
+                return null;
+            }
+        }
+        if (config.coalescing.enabled && !flushing && coalesce(connection, packet, config.coalescing)) {
+            return null;
+        }
+        if (config.bundling.enabled) {
+            // The bundle is not a particle packet, so backpressure is applied here instead of on the event loop
+            if (config.backpressure.enabled) {
+                packet = applyBackpressure(connection, packet, config.backpressure);
+                if (packet == null) {
+                    return null;
+                }
+            }
+            batch(connection, packet, config.bundling);
+            return null;
+        }
+        return packet;
+    }
+
+    /**
+     * Applies the event loop stages. Called from {@code ClientConnection.sendInternal}.
+     *
+     * @return the packet to send in place of {@code packet}, or {@code null} to drop it
+     */
+    public static ParticleS2CPacket filterOnEventLoop(ClientConnection connection, ParticleS2CPacket packet) {
+        if (!eventLoopStagesReached) {
+            eventLoopStagesReached = true;
+        }
+        NoviaversionkickConfig config = NoviaversionkickConfig.get();
+        // With bundling, backpressure was already applied on send
+        if (config.backpressure.enabled && !config.bundling.enabled) {
+            packet = applyBackpressure(connection, packet, config.backpressure);
+            if (packet == null) {
+                return null;
+            }
+        }
+        return packet;
+    }
+
+    public static void setServerThread(Thread thread) {
+        serverThread = thread;
+    }
+
+    /**
+     * Releases held packets whose connection has been classified or timed out, sends every
+     * particle packet buffered during the current tick and finally writes each connection's
+     * batch as one bundle. Called at the end of each server tick.
+     */
+    public static void flushTick() {
+        releasing = true;
+        try {
+            HOLD_QUEUE.tick(NoviaversionkickConfig.get().holdQueue.timeoutTicks, ClientConnection::send);
+        } finally {
+            releasing = false;
+        }
+        drainCoalescers();
+        sendBatches();
+        checkStagesReached();
+    }
+
+    /**
+     * Logs an error once if particles reach the event loop stages while the server thread
+     * stages never see one, which means the send hook no longer runs on the server thread.
+     */
+    private static void checkStagesReached() {
+        if (stagesChecked || ++stageCheckTicks < STAGE_CHECK_TICKS) {
+            return;
+        }
+        stageCheckTicks = 0;
+        if (!eventLoopStagesReached) {
+            return;
+        }
+        stagesChecked = true;
+        if (!serverStagesReached) {
+            LOGGER.error("Particle packets are sent without passing the server thread filters; holding, culling, coalescing and bundling are not applied");
+        }
+    }
+
+    private static void drainCoalescers() {
+        if (PENDING.isEmpty()) {
+            return;
+        }
+        flushing = true;
+        try {
+            for (ClientConnection connection : PENDING) {
+                ParticleCoalescer coalescer = ((ParticleCoalescerHolder) connection).noviaversionkick$getParticleCoalescer();
+                int merged = coalescer.drain(connection::send);
+                ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.COALESCED_PACKETS, ViaBrandTracker.shouldUseLegacyParticles(connection), merged);
+            }
+        } finally {
+            PENDING.clear();
+            flushing = false;
+        }
+    }
+
+    private static void sendBatches() {
+        if (BATCHED.isEmpty()) {
+            return;
+        }
+        sendingBatches = true;
+        try {
+            for (ClientConnection connection : BATCHED) {
+                ParticleBatch batch = ((ParticleBatchHolder) connection).noviaversionkick$getParticleBatch();
+                batch.dequeue();
+                sendBatch(connection, batch);
+            }
+        } finally {
+            BATCHED.clear();
+            sendingBatches = false;
+        }
+    }
+
+    private static void batch(ClientConnection connection, ParticleS2CPacket packet, NoviaversionkickConfig.Bundling bundling) {
+        ParticleBatch batch = ((ParticleBatchHolder) connection).noviaversionkick$getParticleBatch();
+        if (batch.enqueue()) {
+            BATCHED.add(connection);
+        }
+        batch.add(packet);
+        if (batch.size() >= Math.min(Math.max(1, bundling.maxPacketsPerBundle), ParticleBatch.MAX_BUNDLE_SIZE)) {
+            // Early flush; the connection stays queued and is skipped at the end of the tick if nothing else arrives
+            sendingBatches = true;
+            try {
+                sendBatch(connection, batch);
+            } finally {
+                sendingBatches = false;
+            }
+        }
+    }
+
+    private static void sendBatch(ClientConnection connection, ParticleBatch batch) {
+        int size = batch.send(connection);
+        if (size > 1) {
+            boolean legacy = ViaBrandTracker.shouldUseLegacyParticles(connection);
+            ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.BUNDLES, legacy, 1);
+            ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.BUNDLED_PACKETS, legacy, size);
+        }
+    }
+
+    private static boolean coalesce(ClientConnection connection, ParticleS2CPacket packet, NoviaversionkickConfig.Coalescing coalescing) {
+        ParticleCoalescer coalescer = ((ParticleCoalescerHolder) connection).noviaversionkick$getParticleCoalescer();
+        boolean wasEmpty = coalescer.isEmpty();
+        if (!coalescer.offer(packet, coalescing.positionQuantum, coalescing.maxEntriesPerTick)) {
+            return false;
+        }
+        if (wasEmpty) {
+            PENDING.add(connection);
+        }
+        return true;
+    }
+
+    private static ParticleS2CPacket applyCulling(ClientConnection connection, ParticleS2CPacket packet, NoviaversionkickConfig.Culling culling) {
+        if (!(connection.getPacketListener() instanceof ServerPlayNetworkHandler handler)) {
+            return packet;
+        }
+        ServerPlayerEntity player = handler.player;
+        boolean legacy = ViaBrandTracker.shouldUseLegacyParticles(connection);
+        NoviaversionkickConfig.CullingProfile profile = legacy ? culling.legacy : culling.modern;
+        double dx = packet.getX() - player.getX();
+        double dy = packet.getY() - player.getEyeY();
+        double dz = packet.getZ() - player.getZ();
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        double scale = bandScale(profile, distanceSquared);
+        if (scale > 0.0D && distanceSquared > profile.behindMinDistance * profile.behindMinDistance) {
+            Vec3d look = player.getRotationVec(1.0F);
+            if (look.x * dx + look.y * dy + look.z * dz < 0.0D) {
+                scale *= profile.behindScale;
+            }
+        }
+        int count = packet.getCount();
+        int culled = culledCount(count, scale);
+        if (culled < 0) {
+            ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.CULLED_PACKETS, legacy, 1);
+            ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.CULLED_PARTICLES, legacy, Math.max(1, count));
+            return null;
+        }
+        if (culled == count) {
+            return packet;
+        }
+        ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.CULLED_PARTICLES, legacy, count - culled);
+        return ((ParticlePacketView) packet).noviaversionkick$withCount(culled);
+    }
+
+    /**
+     * @return the count scale of the first band containing {@code distanceSquared}, or zero
+     * beyond every band
+     */
+    static double bandScale(NoviaversionkickConfig.CullingProfile profile, double distanceSquared) {
+        for (NoviaversionkickConfig.DistanceBand band : profile.bands) {
+            if (distanceSquared <= band.maxDistance * band.maxDistance) {
+                return band.countScale;
+            }
+        }
+        return 0.0D;
+    }
+
+    /**
+     * A count of zero spawns a single directional particle, which is kept at any non-zero scale.
+     *
+     * @return the count to send after applying {@code scale}, or {@code -1} to drop the packet
+     */
+    static int culledCount(int count, double scale) {
+        if (scale >= 1.0D) {
+            return count;
+        }
+        if (count == 0) {
+            return scale > 0.0D ? 0 : -1;
+        }
+        int culled = (int) Math.round(count * scale);
+        return culled <= 0 ? -1 : Math.min(culled, count);
+    }
+
+    private static ParticleS2CPacket applyBackpressure(ClientConnection connection, ParticleS2CPacket packet, NoviaversionkickConfig.Backpressure backpressure) {
+        Channel channel = ((ClientConnectionAccessor) connection).noviaversionkick$getChannel();
+        if (channel == null) {
+            return packet;
+        }
+        boolean legacy = ViaBrandTracker.shouldUseLegacyParticles(connection);
+        NoviaversionkickConfig.Thinning thinning = legacy ? backpressure.legacy : backpressure.modern;
+        int count = packet.getCount();
+        if (!channel.isWritable()) {
+            recordDropped(legacy, count);
+            return null;
+        }
+        ChannelOutboundBuffer outbound = channel.unsafe().outboundBuffer();
+        if (outbound == null) {
+            return packet;
+        }
+        double pressure = (double) outbound.totalPendingWriteBytes() / Math.max(1, channel.config().getWriteBufferHighWaterMark());
+        if (pressure < thinning.thinStart) {
+            return packet;
+        }
+        if (pressure >= thinning.dropAt) {
+            recordDropped(legacy, count);
+            return null;
+        }
+        if (count <= 1) {
+            // A zero count is a single directional particle; like a count of one it cannot be thinned further
+            return packet;
+        }
+        double progress = (pressure - thinning.thinStart) / Math.max(1.0E-6D, thinning.dropAt - thinning.thinStart);
+        double scale = 1.0D - progress * (1.0D - thinning.minCountScale);
+        int thinned = Math.max(1, (int) Math.round(count * scale));
+        if (thinned >= count) {
+            return packet;
+        }
+        ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.THINNED_PARTICLES, legacy, count - thinned);
+        return ((ParticlePacketView) packet).noviaversionkick$withCount(thinned);
+    }
+
+    private static void recordDropped(boolean legacy, int count) {
+        ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.DROPPED_PACKETS, legacy, 1);
+        ParticleMetrics.recordFilter(ParticleMetrics.FilterEvent.DROPPED_PARTICLES, legacy, Math.max(1, count));
+    }
+}
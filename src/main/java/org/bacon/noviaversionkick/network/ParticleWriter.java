@@ -0,0 +1,133 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.particle.ParticleTypes;
+import org.bacon.noviaversionkick.metrics.ParticleMetrics;
+import org.bacon.noviaversionkick.metrics.ParticleWriteEvent;
+
+/**
+ * Write path of particle packets, shared by the packet's write hook and the load test. Picks
+ * the format for the recipient, serves the packet's cached bytes for it, and records the
+ * write in the metrics, JFR and connection trace. Kept free of mixin types so that it can run
+ * without a game instance.
+ *
+ * <p>In game the write hook only routes legacy connections here; modern connections keep
+ * vanilla's own write and are recorded through {@link #recordModernWrite}.
+ */
+public final class ParticleWriter {
+    private ParticleWriter() {
+    }
+
+    /**
+     * Writes {@code packet} to {@code buf} in the format {@code client} was classified for;
+     * a {@code null} client gets the modern format.
+     */
+    public static void write(SharedParticleEncoding packet, RegistryByteBuf buf, ClientInfoHolder client) {
+        boolean timed = ParticleMetrics.isTimingEncoding();
+        long start = timed ? System.nanoTime() : 0L;
+        boolean legacy = ViaBrandTracker.shouldUseLegacyParticles(client);
+        ParticleWriteEvent writeEvent = null;
+        if (legacy && ParticleWriteEvent.isTypeEnabled()) {
+            writeEvent = new ParticleWriteEvent();
+            writeEvent.begin();
+        }
+        byte[] encoded = encoded(packet, buf, legacy);
+        buf.writeBytes(encoded);
+
+        if (writeEvent != null) {
+            writeEvent.end();
+            if (writeEvent.shouldCommit()) {
+                int typeId = packet.noviaversionkick$typeId();
+                writeEvent.particleType = ParticleMetrics.Snapshot.typeName(typeId);
+                writeEvent.suppressed = ParticleRuleTable.get().action(typeId) == ParticleRuleTable.SUPPRESS;
+                writeEvent.bytes = encoded.length;
+                writeEvent.commit();
+            }
+        }
+
+        if (legacy && ConnectionTrace.isRecordingWrites() && client instanceof ClientConnection connection) {
+            int typeId = packet.noviaversionkick$typeId();
+            ConnectionTrace.recordWrite(connection, ParticleRuleTable.get().action(typeId) == ParticleRuleTable.SUPPRESS, typeId, packet.noviaversionkick$count());
+        }
+        if (ParticleMetrics.isEnabled()) {
+            int typeId = packet.noviaversionkick$typeId();
+            ParticleMetrics.Mode mode = !legacy
+                ? ParticleMetrics.Mode.MODERN
+                : ParticleRuleTable.get().action(typeId) == ParticleRuleTable.SUPPRESS ? ParticleMetrics.Mode.SUPPRESSED : ParticleMetrics.Mode.LEGACY;
+            ParticleMetrics.recordWrite(mode, typeId, encoded.length);
+            if (timed) {
+                ParticleMetrics.recordEncodeTime(mode, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Records a write of {@code packet} that vanilla serialised in the modern format.
+     *
+     * @param startNanos when the write started, or {@code 0} if encoding is not timed
+     */
+    public static void recordModernWrite(SharedParticleEncoding packet, int bytes, long startNanos) {
+        int typeId = packet.noviaversionkick$typeId();
+        ParticleMetrics.recordWrite(ParticleMetrics.Mode.MODERN, typeId, bytes);
+        if (startNanos != 0L && ParticleMetrics.isTimingEncoding()) {
+            ParticleMetrics.recordEncodeTime(ParticleMetrics.Mode.MODERN, System.nanoTime() - startNanos);
+        }
+    }
+
+    private static byte[] encoded(SharedParticleEncoding packet, RegistryByteBuf buf, boolean legacy) {
+        byte[] encoded = packet.noviaversionkick$cachedBytes(legacy);
+        if (encoded == null) {
+            synchronized (packet) {
+                encoded = packet.noviaversionkick$cachedBytes(legacy);
+                if (encoded == null) {
+                    ByteBuf backing = Unpooled.buffer();
+                    try {
+                        packet.noviaversionkick$writeUncached(new RegistryByteBuf(backing, buf.getRegistryManager()), legacy);
+                        encoded = ByteBufUtil.getBytes(backing);
+                    } finally {
+                        backing.release();
+                    }
+                    packet.noviaversionkick$cacheBytes(legacy, encoded);
+                }
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Writes the fields of a particle packet in vanilla's layout, with the effect payload
+     * taken from {@link EffectPayloadCache}.
+     */
+    public static void writeModern(RegistryByteBuf buf, ParticleEffect effect, boolean forceSpawn, boolean important, double x, double y, double z,
+                                   float offsetX, float offsetY, float offsetZ, float speed, int count) {
+        writeModern(buf, effect, forceSpawn, important, x, y, z, offsetX, offsetY, offsetZ, speed, count, true);
+    }
+
+    /**
+     * @param cachedEffect whether the effect payload may be served by, and counted in,
+     *                     {@link EffectPayloadCache}; off for encodes that are not sends
+     */
+    public static void writeModern(RegistryByteBuf buf, ParticleEffect effect, boolean forceSpawn, boolean important, double x, double y, double z,
+                                   float offsetX, float offsetY, float offsetZ, float speed, int count, boolean cachedEffect) {
+        buf.writeBoolean(forceSpawn);
+        buf.writeBoolean(important);
+        buf.writeDouble(x);
+        buf.writeDouble(y);
+        buf.writeDouble(z);
+        buf.writeFloat(offsetX);
+        buf.writeFloat(offsetY);
+        buf.writeFloat(offsetZ);
+        buf.writeFloat(speed);
+        buf.writeInt(count);
+        if (cachedEffect) {
+            EffectPayloadCache.encode(buf, effect);
+        } else {
+            ParticleTypes.PACKET_CODEC.encode(buf, effect);
+        }
+    }
+}
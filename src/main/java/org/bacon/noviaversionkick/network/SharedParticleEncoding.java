@@ -0,0 +1,27 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.network.RegistryByteBuf;
+
+/**
+ * A particle packet whose wire bytes are encoded once per format and then shared by every
+ * recipient, written through {@link ParticleWriter}. Implemented on
+ * {@link net.minecraft.network.packet.s2c.play.ParticleS2CPacket} by mixin, and by the load
+ * test's stand-in packets.
+ */
+public interface SharedParticleEncoding {
+    int noviaversionkick$typeId();
+
+    int noviaversionkick$count();
+
+    /**
+     * @return the bytes cached for the format, or {@code null} before the first write in it
+     */
+    byte[] noviaversionkick$cachedBytes(boolean legacy);
+
+    void noviaversionkick$cacheBytes(boolean legacy, byte[] bytes);
+
+    /**
+     * Writes the packet in the format without consulting the cache.
+     */
+    void noviaversionkick$writeUncached(RegistryByteBuf buf, boolean legacy);
+}
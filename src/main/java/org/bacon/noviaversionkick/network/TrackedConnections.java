@@ -0,0 +1,147 @@
+package org.bacon.noviaversionkick.network;
+
+import net.minecraft.network.ClientConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Connections this mod holds state for, from the start of login until they disconnect.
+ *
+ * <p>State attached to a connection is released as soon as its login, configuration or play
+ * handler reports the disconnect, rather than whenever the connection object becomes
+ * unreachable. The number of tracked connections is capped; when a login pushes it over the
+ * cap, the oldest connections that have not yet joined the game lose their profile, particle
+ * state and trace first, so the cap bounds every profile this mod holds. An evicted connection
+ * is treated as unclassified until its client sends its brand or mod list again, and is tracked
+ * again once that yields a decision. Players in game are never evicted. Only touched from the
+ * server thread, apart from {@link #onClassified}.
+ */
+public final class TrackedConnections {
+    private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
+    // In login order; the value is whether the connection has joined the game
+    private static final LinkedHashMap<ClientConnection, Boolean> TRACKED = new LinkedHashMap<>();
+    // Connections whose particle decision changed, tracked again on the next tick if evicted
+    private static final Queue<ClientConnection> CLASSIFIED = new ConcurrentLinkedQueue<>();
+    private static int maxConnections = 4096;
+    private static long released;
+    private static long evicted;
+
+    private TrackedConnections() {
+    }
+
+    public static void configure(NoviaversionkickConfig.Tracking config) {
+        maxConnections = Math.max(1, config.maxConnections);
+        evictPending();
+    }
+
+    public static void onLogin(ClientConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        TRACKED.putIfAbsent(connection, Boolean.FALSE);
+        evictPending();
+    }
+
+    /**
+     * Called whenever a particle decision is published for {@code connection}, from any thread.
+     * Inputs that leave the decision unchanged do not call this.
+     */
+    static void onClassified(ClientConnection connection) {
+        CLASSIFIED.add(connection);
+    }
+
+    /**
+     * Tracks evicted connections that have been classified again. Called at the end of every
+     * server tick.
+     */
+    public static void tick() {
+        ClientConnection connection;
+        boolean added = false;
+        while ((connection = CLASSIFIED.poll()) != null) {
+            // Closed connections have already been released by their disconnect
+            if (connection.isOpen() && TRACKED.putIfAbsent(connection, Boolean.FALSE) == null) {
+                added = true;
+            }
+        }
+        if (added) {
+            evictPending();
+        }
+    }
+
+    public static void onJoin(ClientConnection connection) {
+        if (connection != null) {
+            TRACKED.put(connection, Boolean.TRUE);
+        }
+    }
+
+    public static void onDisconnect(ClientConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        TRACKED.remove(connection);
+        release(connection);
+        released++;
+    }
+
+    private static void evictPending() {
+        if (TRACKED.size() <= maxConnections) {
+            return;
+        }
+        Iterator<Map.Entry<ClientConnection, Boolean>> iterator = TRACKED.entrySet().iterator();
+        while (TRACKED.size() > maxConnections && iterator.hasNext()) {
+            Map.Entry<ClientConnection, Boolean> entry = iterator.next();
+            if (entry.getValue()) {
+                continue;
+            }
+            iterator.remove();
+            ViaBrandTracker.dropProfile(entry.getKey());
+            releaseParticleState(entry.getKey());
+            evicted++;
+            LOGGER.debug("Evicted the profile and particle state of {} because {} connections are tracked", entry.getKey().getAddress(), maxConnections);
+        }
+    }
+
+    private static void release(ClientConnection connection) {
+        ViaBrandTracker.forget(connection);
+        releaseParticleState(connection);
+    }
+
+    private static void releaseParticleState(ClientConnection connection) {
+        ParticleCapture.forget(connection);
+        ((ConnectionStateHolder) connection).noviaversionkick$releaseState();
+    }
+
+    public static Report report() {
+        int pending = 0;
+        long connectionBytes = 0L;
+        for (Map.Entry<ClientConnection, Boolean> entry : TRACKED.entrySet()) {
+            if (!entry.getValue()) {
+                pending++;
+            }
+            // Registry entry plus the state on the connection
+            connectionBytes += 40L + ((ConnectionStateHolder) entry.getKey()).noviaversionkick$estimateStateBytes();
+        }
+        return new Report(
+            TRACKED.size(),
+            pending,
+            maxConnections,
+            released,
+            evicted,
+            connectionBytes,
+            ViaBrandTracker.sharedProfiles(),
+            ViaBrandTracker.sharedProfileBytes(),
+            ModIdPool.size()
+        );
+    }
+
+    public record Report(int tracked, int pending, int maxConnections, long released, long evicted, long connectionBytes,
+                         int sharedProfiles, long sharedProfileBytes, int modIds) {
+    }
+}
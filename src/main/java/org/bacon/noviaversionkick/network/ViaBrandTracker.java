@@ -1,132 +1,310 @@
 package org.bacon.noviaversionkick.network;
 
 import net.minecraft.network.ClientConnection;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bacon.noviaversionkick.metrics.ClassificationDecisionEvent;
+import org.bacon.noviaversionkick.metrics.ClassificationInputEvent;
+import org.bacon.noviaversionkick.mixin.ServerCommonNetworkHandlerAccessor;
 
 import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Tracks information about connected clients so that we can tailor the packets
  * that are sent to them.
+ *
+ * <p>Each client's {@link ClientInfo} is stored directly on its connection through
+ * {@link ClientInfoHolder}, so reading it is a single volatile load and the state is
+ * released together with the connection. Profiles are immutable: the particle encoding
+ * decision is made once whenever the brand or mod list changes, and the per-packet path
+ * only reads the published result.
+ *
+ * <p>Decisions come from the current {@link ClassificationRules}. When the rules are
+ * reloaded, live connections are re-evaluated a few per tick by {@link #reclassifyTick}.
+ *
+ * <p>Once a player's identity is known at login, the decision remembered by
+ * {@link ClassificationCache} is published as a provisional profile until the client
+ * reports its brand again.
  */
 public final class ViaBrandTracker {
     private static final Logger LOGGER = LogManager.getLogger("Noviaversionkick");
-    private static final Map<ClientConnection, ClientInfo> CLIENTS = Collections.synchronizedMap(new WeakHashMap<>());
+    // Connections waiting to be re-evaluated after a rule change; only touched from the server thread
+    private static final ArrayDeque<ClientConnection> RECLASSIFY_QUEUE = new ArrayDeque<>();
     private ViaBrandTracker() {
     }
 
     public static void setBrand(ClientConnection connection, String brand) {
-        // Downgrade noisy logs to DEBUG
-        LOGGER.debug(
-            "setBrand called for connection={} with brand='{}'",
-            describeConnection(connection),
-            brand
-        );
+        ClassificationInputEvent event = new ClassificationInputEvent();
+        event.begin();
+        applyBrand(connection, brand);
+        commitInput(event, "brand", connection);
+    }
+
+    private static void applyBrand(ClientConnection connection, String brand) {
         if (connection == null) {
             LOGGER.debug("Ignoring setBrand call because connection was null");
             return;
         }
-        synchronized (CLIENTS) {
-            ClientInfo info = CLIENTS.get(connection);
-            if (brand == null) {
-                if (info != null) {
-                    LOGGER.debug("Clearing client brand for {}", describeConnection(connection));
-                    info.setBrand(null);
-                    info.resetLegacyDecisionLog();
-                    if (info.isEmpty()) {
-                        LOGGER.debug("No remaining data for {}; removing client entry", describeConnection(connection));
-                        CLIENTS.remove(connection);
-                    }
-                } else {
+        boolean debug = LOGGER.isDebugEnabled();
+        if (debug) {
+            LOGGER.debug("Raw brand payload received from {}: '{}'", describeConnection(connection), brand);
+        }
+        String sanitized = brand == null ? null : brand.strip();
+        ConnectionTrace.record(connection, ConnectionTrace.Kind.BRAND, 0, 0, sanitized);
+        ClientInfoHolder holder = (ClientInfoHolder) connection;
+        synchronized (holder) {
+            ClientInfo previous = holder.noviaversionkick$getClientInfo();
+            if (sanitized == null && previous == null) {
+                if (debug) {
                     LOGGER.debug("No brand information stored for {}; nothing to clear", describeConnection(connection));
                 }
                 return;
             }
-            String sanitized = brand.strip();
-            LOGGER.debug(
-                "Raw brand payload received from {}: '{}'",
-                describeConnection(connection),
-                brand
-            );
-            if (info == null) {
-                LOGGER.debug("Creating new tracking entry for {}", describeConnection(connection));
-                info = new ClientInfo();
-                CLIENTS.put(connection, info);
+            ClientInfo updated = previous == null ? ClientInfo.EMPTY.withBrand(sanitized) : previous.withBrand(sanitized);
+            publish(connection, holder, previous, updated);
+        }
+    }
+
+    /**
+     * Associates {@code connection} with {@code playerId} and, if nothing has been learned about
+     * the client yet, presumes the encoding that was last used for that player.
+     */
+    public static void onLoginProfile(ClientConnection connection, UUID playerId) {
+        if (connection == null || playerId == null) {
+            return;
+        }
+        ClientInfoHolder holder = (ClientInfoHolder) connection;
+        holder.noviaversionkick$setPlayerId(playerId);
+        Boolean cached = ClassificationCache.lookup(playerId);
+        if (cached == null) {
+            return;
+        }
+        synchronized (holder) {
+            if (holder.noviaversionkick$getClientInfo() != null) {
+                return;
             }
-            info.setBrand(sanitized);
-            info.resetLegacyDecisionLog();
-            LOGGER.debug(
-                "Recorded sanitized client brand '{}' for {}",
-                sanitized,
-                describeConnection(connection)
-            );
+            holder.noviaversionkick$setClientInfo(cached ? ClientInfo.PRESUMED_LEGACY : ClientInfo.PRESUMED_MODERN);
+        }
+        ConnectionTrace.record(connection, ConnectionTrace.Kind.PRESUMED, cached ? 1 : 0, 0, null);
+        commitDecision(connection, cached, -1, true);
+        if (cached) {
+            LegacyEncodingHandler.update(connection);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Presuming {} particle encoding for {} ({}) from the classification cache", cached ? "legacy" : "modern", describeConnection(connection), playerId);
         }
     }
 
     public static void setClientModList(ClientConnection connection, Collection<String> mods) {
-        LOGGER.debug(
-            "setClientModList called for connection={} with {} mods",
-            describeConnection(connection),
-            mods == null ? 0 : mods.size()
-        );
+        ClassificationInputEvent event = new ClassificationInputEvent();
+        event.begin();
+        applyClientModList(connection, mods);
+        commitInput(event, "modList", connection);
+    }
+
+    private static void applyClientModList(ClientConnection connection, Collection<String> mods) {
         if (connection == null) {
             LOGGER.debug("Ignoring setClientModList call because connection was null");
             return;
         }
-        synchronized (CLIENTS) {
-            ClientInfo info = CLIENTS.get(connection);
-            if (mods == null) {
-                if (info != null) {
-                    LOGGER.debug("Clearing client mod list for {}", describeConnection(connection));
-                    info.setClientMods(null);
-                    info.resetLegacyDecisionLog();
-                    if (info.isEmpty()) {
-                        LOGGER.debug("No remaining data for {}; removing client entry", describeConnection(connection));
-                        CLIENTS.remove(connection);
-                    }
-                } else {
+        boolean debug = LOGGER.isDebugEnabled();
+        ClientInfoHolder holder = (ClientInfoHolder) connection;
+        synchronized (holder) {
+            ClientInfo previous = holder.noviaversionkick$getClientInfo();
+            if (mods == null && previous == null) {
+                if (debug) {
                     LOGGER.debug("No mod list stored for {}; nothing to clear", describeConnection(connection));
                 }
                 return;
             }
-            if (info == null) {
-                LOGGER.debug("Creating new tracking entry for {} to store mod list", describeConnection(connection));
-                info = new ClientInfo();
-                CLIENTS.put(connection, info);
+            ClientInfo updated = previous == null ? ClientInfo.EMPTY.withClientMods(mods) : previous.withClientMods(mods);
+            ConnectionTrace.record(connection, ConnectionTrace.Kind.MOD_LIST, 0, 0, mods == null ? null : updated);
+            if (debug) {
+                LOGGER.debug(
+                    "Recorded {} client mods for {}: {}",
+                    updated.describeClientModCount(),
+                    describeConnection(connection),
+                    updated.describeClientMods()
+                );
             }
-            info.setClientMods(mods);
-            info.resetLegacyDecisionLog();
-            LOGGER.debug(
-                "Recorded {} client mods for {}: {}",
-                info.describeClientModCount(),
-                describeConnection(connection),
-                info.describeClientMods()
-            );
+            publish(connection, holder, previous, updated);
         }
     }
 
     public static boolean shouldUseLegacyParticles(ClientConnection connection) {
-        if (connection == null) {
+        return shouldUseLegacyParticles((ClientInfoHolder) connection);
+    }
+
+    public static boolean shouldUseLegacyParticles(ClientInfoHolder holder) {
+        if (holder == null) {
             return false;
         }
-        ClientInfo info;
-        LOGGER.debug("Evaluating particle encoding strategy for {}", describeConnection(connection));
-        synchronized (CLIENTS) {
-            info = CLIENTS.get(connection);
+        ClientInfo info = holder.noviaversionkick$getClientInfo();
+        return info != null && info.legacyParticles;
+    }
+
+    /**
+     * Whether the encoding for {@code connection} is known: the client reported its brand or a
+     * Fabric mod list, or a decision was remembered from an earlier session.
+     */
+    public static boolean isClassified(ClientConnection connection) {
+        ClientInfo info = ((ClientInfoHolder) connection).noviaversionkick$getClientInfo();
+        return info != null && (info.provisional || info.brand != null || (info.modCount > 0 && info.legacyParticles));
+    }
+
+    /**
+     * Drops the profile and player of a connection that disconnected. Called on the server
+     * thread.
+     */
+    static void forget(ClientConnection connection) {
+        dropProfile(connection);
+        ((ClientInfoHolder) connection).noviaversionkick$setPlayerId(null);
+    }
+
+    /**
+     * Drops the profile of a connection, removing its legacy encoder if one is installed. The
+     * player stays known so that a later brand can still be remembered for it. Called on the
+     * server thread.
+     */
+    static void dropProfile(ClientConnection connection) {
+        RECLASSIFY_QUEUE.remove(connection);
+        ClientInfoHolder holder = (ClientInfoHolder) connection;
+        synchronized (holder) {
+            holder.noviaversionkick$setClientInfo(null);
         }
-        if (info == null) {
-            LOGGER.debug("No client info stored for {}; defaulting to modern particles", describeConnection(connection));
-            return false;
+        if (connection.isOpen()) {
+            LegacyEncodingHandler.update(connection);
+        }
+    }
+
+    static int sharedProfiles() {
+        return ClientInfo.SHARED.size();
+    }
+
+    static long sharedProfileBytes() {
+        long bytes = 0L;
+        for (ClientInfo info : ClientInfo.SHARED.keySet()) {
+            // Map node plus the profile itself
+            bytes += 32L + info.retainedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Forgets shared profiles built with the previous rules and queues every live player for
+     * re-evaluation. Called on the server thread after {@link ClassificationRules#rebuild}.
+     */
+    public static void onRulesChanged(MinecraftServer server) {
+        ClientInfo.SHARED.clear();
+        RECLASSIFY_QUEUE.clear();
+        // There is no player manager yet when the config is first loaded on server start
+        if (server == null || server.getPlayerManager() == null) {
+            return;
+        }
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            RECLASSIFY_QUEUE.add(((ServerCommonNetworkHandlerAccessor) player.networkHandler).noviaversionkick$getConnection());
+        }
+    }
+
+    /**
+     * Re-evaluates up to {@code budget} queued connections against the current rules. Called
+     * at the end of every server tick.
+     */
+    public static void reclassifyTick(int budget) {
+        for (int i = 0; i < budget && !RECLASSIFY_QUEUE.isEmpty(); i++) {
+            reclassify(RECLASSIFY_QUEUE.poll());
+        }
+    }
+
+    private static void reclassify(ClientConnection connection) {
+        if (connection == null || !connection.isOpen()) {
+            return;
+        }
+        ClientInfoHolder holder = (ClientInfoHolder) connection;
+        synchronized (holder) {
+            ClientInfo previous = holder.noviaversionkick$getClientInfo();
+            if (previous == null || previous.provisional || previous.rules == ClassificationRules.get()) {
+                return;
+            }
+            publish(connection, holder, previous, previous.reclassified());
         }
-        return info.shouldUseLegacyParticles(connection);
+    }
+
+    private static void publish(ClientConnection connection, ClientInfoHolder holder, ClientInfo previous, ClientInfo updated) {
+        if (updated.isEmpty()) {
+            holder.noviaversionkick$setClientInfo(null);
+            LOGGER.debug("No remaining data for {}; removing client entry", describeConnection(connection));
+        } else {
+            holder.noviaversionkick$setClientInfo(updated);
+        }
+        // The brand arrives after the mod list, so a profile with a brand is complete
+        if (!updated.provisional && updated.brand != null) {
+            ClassificationCache.record(holder.noviaversionkick$getPlayerId(), updated.fingerprint(), updated.legacyParticles);
+        }
+        boolean previousDecision = previous != null && previous.legacyParticles;
+        if (previous == null || previousDecision != updated.legacyParticles) {
+            LegacyEncodingHandler.update(connection);
+            TrackedConnections.onClassified(connection);
+            commitDecision(connection, updated.legacyParticles, updated.matchedRule, false);
+            ConnectionTrace.record(
+                connection,
+                ConnectionTrace.Kind.DECISION,
+                updated.legacyParticles ? 1 : 0,
+                updated.matchedRule,
+                null
+            );
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    "Using {} particle encoding for {} (brand='{}', rule={})",
+                    updated.legacyParticles ? "legacy" : "modern",
+                    describeConnection(connection),
+                    updated.brand,
+                    updated.matchedRule < 0 ? "default" : Integer.toString(updated.matchedRule)
+                );
+            }
+        }
+    }
+
+    private static void commitInput(ClassificationInputEvent event, String input, ClientConnection connection) {
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.input = input;
+        event.address = describeConnection(connection);
+        ClientInfo info = connection == null ? null : ((ClientInfoHolder) connection).noviaversionkick$getClientInfo();
+        if (info != null) {
+            event.brand = info.brand;
+            event.modCount = info.modCount;
+            event.legacy = info.legacyParticles;
+        }
+        event.commit();
+    }
+
+    private static void commitDecision(ClientConnection connection, boolean legacy, int rule, boolean presumed) {
+        ClassificationDecisionEvent event = new ClassificationDecisionEvent();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.address = describeConnection(connection);
+        event.legacy = legacy;
+        event.rule = rule;
+        event.presumed = presumed;
+        event.commit();
     }
 
     private static String describeConnection(ClientConnection connection) {
@@ -137,21 +315,89 @@ public final class ViaBrandTracker {
         return address != null ? address.toString() : "unknown";
     }
 
-    private static final class ClientInfo {
-        private volatile String brand;
-        private volatile Set<String> clientMods;
-        private volatile Boolean lastLegacyDecision;
+    /**
+     * Immutable snapshot of what a client has told us about itself, together with the
+     * particle encoding decision derived from it. Mod lists are stored as bitsets over
+     * {@link ModIdPool} ids, and identical brand and mod list combinations share a single
+     * instance.
+     */
+    public static final class ClientInfo {
+        static final ClientInfo EMPTY = new ClientInfo(null, null, null, 0);
+        static final ClientInfo PRESUMED_LEGACY = new ClientInfo(true);
+        static final ClientInfo PRESUMED_MODERN = new ClientInfo(false);
+        private static final int MAX_SHARED_PROFILES = 4096;
+        // New pool ids a single mod list may claim; further unknown mods are kept as strings
+        private static final int MAX_NEW_IDS_PER_LIST = 64;
+        static final ConcurrentHashMap<ClientInfo, ClientInfo> SHARED = new ConcurrentHashMap<>();
+
+        private final String brand;
+        private final long[] modBits;
+        // Mods that did not fit in the pool; almost always null
+        private final String[] overflowMods;
+        private final int modCount;
+        // Rule set the decision was made with; null for presumed profiles
+        private final ClassificationRules rules;
+        private final int matchedRule;
+        private final boolean legacyParticles;
+        // Decision taken from the classification cache rather than from the client
+        private final boolean provisional;
+        private final int hash;
 
-        void setBrand(String brand) {
+        private ClientInfo(String brand, long[] modBits, String[] overflowMods, int modCount) {
             this.brand = brand;
+            this.modBits = modBits;
+            this.overflowMods = overflowMods;
+            this.modCount = modCount;
+            this.rules = ClassificationRules.get();
+            this.matchedRule = this.rules.classify(brand, modBits, overflowMods);
+            this.legacyParticles = this.rules.legacy(this.matchedRule);
+            this.provisional = false;
+            this.hash = 31 * (31 * Objects.hashCode(brand) + Arrays.hashCode(modBits)) + Arrays.hashCode(overflowMods);
+        }
+
+        private ClientInfo(boolean presumedLegacy) {
+            this.brand = null;
+            this.modBits = null;
+            this.overflowMods = null;
+            this.modCount = 0;
+            this.rules = null;
+            this.matchedRule = -1;
+            this.legacyParticles = presumedLegacy;
+            this.provisional = true;
+            this.hash = presumedLegacy ? 1 : 2;
         }
 
-        void setClientMods(Collection<String> mods) {
+        private static ClientInfo of(String brand, long[] modBits, String[] overflowMods, int modCount) {
+            if (brand == null && modBits == null && overflowMods == null) {
+                return EMPTY;
+            }
+            ClientInfo info = new ClientInfo(brand, modBits, overflowMods, modCount);
+            ClientInfo shared = SHARED.get(info);
+            if (shared != null) {
+                return shared;
+            }
+            if (SHARED.size() >= MAX_SHARED_PROFILES) {
+                // Start over rather than stop sharing; instances already handed out stay valid
+                SHARED.clear();
+            }
+            shared = SHARED.putIfAbsent(info, info);
+            return shared != null ? shared : info;
+        }
+
+        ClientInfo withBrand(String brand) {
+            return this.keepPresumption(of(brand, this.modBits, this.overflowMods, this.modCount));
+        }
+
+        ClientInfo withClientMods(Collection<String> mods) {
             if (mods == null || mods.isEmpty()) {
-                this.clientMods = null;
-                return;
+                return this.keepPresumption(of(this.brand, null, null, 0));
             }
-            Set<String> normalized = new LinkedHashSet<>();
+            int[] ids = new int[mods.size()];
+            int idCount = 0;
+            int maxId = -1;
+            int newIds = 0;
+            Set<String> overflow = null;
+            int count = 0;
             for (String mod : mods) {
                 if (mod == null) {
                     continue;
@@ -160,117 +406,169 @@ public final class ViaBrandTracker {
                 if (trimmed.isEmpty()) {
                     continue;
                 }
-                normalized.add(trimmed.toLowerCase(Locale.ROOT));
+                String normalized = trimmed.toLowerCase(Locale.ROOT);
+                int id = ModIdPool.lookup(normalized);
+                if (id < 0 && newIds < MAX_NEW_IDS_PER_LIST) {
+                    id = ModIdPool.intern(normalized);
+                    newIds++;
+                }
+                if (id < 0) {
+                    if (overflow == null) {
+                        overflow = new LinkedHashSet<>();
+                    }
+                    if (overflow.add(normalized)) {
+                        count++;
+                    }
+                    continue;
+                }
+                ids[idCount++] = id;
+                maxId = Math.max(maxId, id);
             }
-            this.clientMods = normalized.isEmpty() ? null : normalized;
-        }
-
-        synchronized boolean shouldUseLegacyParticles(ClientConnection connection) {
-            boolean legacy = computeLegacyDecision(connection);
-            Boolean previousDecision = this.lastLegacyDecision;
-            if (previousDecision == null || previousDecision != legacy) {
-                this.lastLegacyDecision = legacy;
-                if (legacy) {
-                    LOGGER.debug(
-                        "Using legacy particle encoding for {} (brand='{}')",
-                        describeConnection(connection),
-                        this.brand
-                    );
-                } else {
-                    LOGGER.debug(
-                        "Using modern particle encoding for {} (brand='{}')",
-                        describeConnection(connection),
-                        this.brand
-                    );
+            // Sized to the highest id present, so the bitset never needs trimming
+            long[] bits = maxId < 0 ? null : new long[(maxId >>> 6) + 1];
+            for (int i = 0; i < idCount; i++) {
+                int id = ids[i];
+                long bit = 1L << id;
+                if ((bits[id >>> 6] & bit) == 0) {
+                    bits[id >>> 6] |= bit;
+                    count++;
                 }
             }
-            return legacy;
+            return of(this.brand, bits, overflow == null ? null : overflow.toArray(new String[0]), count);
         }
 
-        void resetLegacyDecisionLog() {
-            this.lastLegacyDecision = null;
+        ClientInfo reclassified() {
+            return of(this.brand, this.modBits, this.overflowMods, this.modCount);
         }
 
-        boolean isEmpty() {
-            return this.brand == null && (this.clientMods == null || this.clientMods.isEmpty());
+        private ClientInfo keepPresumption(ClientInfo updated) {
+            // Clearing inputs that were never received must not discard a cached decision
+            return updated == EMPTY && this.provisional ? this : updated;
         }
 
-        String describeClientModCount() {
-            Set<String> mods = this.clientMods;
-            return mods == null ? "0" : Integer.toString(mods.size());
+        public String brand() {
+            return this.brand;
         }
 
-        String describeClientMods() {
-            Set<String> mods = this.clientMods;
-            if (mods == null || mods.isEmpty()) {
-                return "[]";
-            }
-            return mods.toString();
+        public boolean legacyParticles() {
+            return this.legacyParticles;
         }
 
-        private boolean computeLegacyDecision(ClientConnection connection) {
-            boolean fabricBrand = brandIndicatesFabric(this.brand);
-            boolean fabricMods = modsIndicateFabric(this.clientMods);
+        public boolean provisional() {
+            return this.provisional;
+        }
 
-            LOGGER.debug(
-                "Evaluating platform for {}: brandIndicatesFabric={}, modsIndicateFabric={}",
-                describeConnection(connection),
-                fabricBrand,
-                fabricMods
-            );
+        boolean isEmpty() {
+            return !this.provisional && this.brand == null && this.modBits == null && this.overflowMods == null;
+        }
 
-            if (fabricBrand || fabricMods) {
-                LOGGER.debug(
-                    "Assuming Fabric client for {}; legacy particle encoding will be used",
-                    describeConnection(connection)
-                );
-                return true;
+        long retainedBytes() {
+            long bytes = 56L;
+            if (this.brand != null) {
+                bytes += 40L + this.brand.length();
+            }
+            if (this.modBits != null) {
+                bytes += 16L + 8L * this.modBits.length;
+            }
+            if (this.overflowMods != null) {
+                bytes += 16L + 4L * this.overflowMods.length;
+                for (String mod : this.overflowMods) {
+                    bytes += 40L + mod.length();
+                }
             }
+            return bytes;
+        }
 
-            LOGGER.debug(
-                "Fabric indicators not detected for {}; modern particles will be used",
-                describeConnection(connection)
-            );
-            return false;
+        String describeClientModCount() {
+            return Integer.toString(this.modCount);
         }
 
-        private static boolean brandIndicatesFabric(String brand) {
-            if (brand == null) {
-                return false;
-            }
-            String sanitized = brand.trim();
-            if (sanitized.isEmpty()) {
-                return false;
+        String describeClientMods() {
+            if (this.modCount == 0) {
+                return "[]";
             }
-            String[] fragments = sanitized.split("\\u0000");
-            for (String fragment : fragments) {
-                if (fragment == null) {
-                    continue;
+            StringJoiner joiner = new StringJoiner(", ", "[", "]");
+            long[] bits = this.modBits;
+            if (bits != null) {
+                for (int word = 0; word < bits.length; word++) {
+                    long remaining = bits[word];
+                    while (remaining != 0) {
+                        joiner.add(ModIdPool.name((word << 6) + Long.numberOfTrailingZeros(remaining)));
+                        remaining &= remaining - 1;
+                    }
                 }
-                String normalized = fragment.trim().toLowerCase(Locale.ROOT);
-                if (normalized.isEmpty()) {
-                    continue;
+            }
+            if (this.overflowMods != null) {
+                for (String mod : this.overflowMods) {
+                    joiner.add(mod);
                 }
-                if (normalized.contains("fabric")) {
-                    return true;
+            }
+            return joiner.toString();
+        }
+
+        /**
+         * @return the reported mod ids in pool order, followed by those that did not fit in the pool
+         */
+        List<String> clientMods() {
+            List<String> mods = new ArrayList<>(this.modCount);
+            long[] bits = this.modBits;
+            if (bits != null) {
+                for (int word = 0; word < bits.length; word++) {
+                    long remaining = bits[word];
+                    while (remaining != 0) {
+                        mods.add(ModIdPool.name((word << 6) + Long.numberOfTrailingZeros(remaining)));
+                        remaining &= remaining - 1;
+                    }
                 }
             }
-            return false;
+            if (this.overflowMods != null) {
+                mods.addAll(Arrays.asList(this.overflowMods));
+            }
+            return mods;
         }
 
-        private static boolean modsIndicateFabric(Set<String> mods) {
-            if (mods == null || mods.isEmpty()) {
-                return false;
+        /**
+         * Stable 64-bit FNV-1a hash of the brand and the sorted mod ids, independent of the
+         * {@link ModIdPool} ids assigned in this run.
+         */
+        long fingerprint() {
+            List<String> mods = this.clientMods();
+            mods.sort(null);
+            long hash = fnv(0xcbf29ce484222325L, this.brand == null ? "" : this.brand);
+            for (String mod : mods) {
+                // A zero byte separates entries
+                hash = fnv(hash * 0x100000001b3L, mod);
+            }
+            return hash;
+        }
+
+        private static long fnv(long hash, String value) {
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001b3L;
             }
-            if (mods.contains("fabricloader")) {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
                 return true;
             }
-            for (String mod : mods) {
-                if (mod != null && mod.contains("fabric")) {
-                    return true;
-                }
+            // Presumed profiles are singletons and never equal to a reported one
+            if (!(other instanceof ClientInfo that) || this.provisional || that.provisional) {
+                return false;
             }
-            return false;
+            return this.hash == that.hash
+                && this.rules == that.rules
+                && Objects.equals(this.brand, that.brand)
+                && Arrays.equals(this.modBits, that.modBits)
+                && Arrays.equals(this.overflowMods, that.overflowMods);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
         }
     }
 }
@@ -0,0 +1,35 @@
+package org.bacon.noviaversionkick.network.translate;
+
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.s2c.play.ExplosionS2CPacket;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.registry.Registries;
+import org.bacon.noviaversionkick.network.ParticleRuleTable;
+
+/**
+ * Applies the suppression and remap rules to the explosion particle of explosion packets
+ * sent to legacy clients. The weighted block particles keep their vanilla defaults, which
+ * every client knows.
+ */
+final class ExplosionTranslator implements PacketTranslator<ExplosionS2CPacket> {
+    @Override
+    public int clientClasses() {
+        return LEGACY_CLIENTS;
+    }
+
+    @Override
+    public ExplosionS2CPacket onEventLoop(ClientConnection connection, ExplosionS2CPacket packet) {
+        ParticleEffect effect = packet.explosionParticle();
+        ParticleRuleTable rules = ParticleRuleTable.get();
+        int typeId = Registries.PARTICLE_TYPE.getRawId(effect.getType());
+        ParticleEffect replacement = switch (rules.action(typeId)) {
+            case ParticleRuleTable.SUPPRESS -> rules.suppressFallback();
+            case ParticleRuleTable.REMAP -> rules.remapTarget(typeId);
+            default -> effect;
+        };
+        if (replacement == effect || replacement == null) {
+            return packet;
+        }
+        return new ExplosionS2CPacket(packet.center(), packet.radius(), packet.blockCount(), packet.playerKnockback(), replacement, packet.explosionSound(), packet.blockParticles());
+    }
+}
@@ -0,0 +1,47 @@
+package org.bacon.noviaversionkick.network.translate;
+
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.Packet;
+
+/**
+ * Per-recipient handling for one packet class, registered with {@link PacketTranslators}.
+ */
+public interface PacketTranslator<P extends Packet<?>> {
+    int LEGACY_CLIENTS = 1;
+    int MODERN_CLIENTS = 2;
+    int ALL_CLIENTS = LEGACY_CLIENTS | MODERN_CLIENTS;
+
+    /**
+     * @return a mask of {@link #LEGACY_CLIENTS} and {@link #MODERN_CLIENTS} that
+     * {@link #onSend} and {@link #onEventLoop} apply to
+     */
+    int clientClasses();
+
+    /**
+     * Called on the sending thread when {@code packet} is handed to {@code connection} without
+     * a send listener. Only the server thread may return a different packet.
+     *
+     * @return the packet to send in its place, or {@code null} to drop it
+     */
+    default P onSend(ClientConnection connection, P packet) {
+        return packet;
+    }
+
+    /**
+     * Called on the connection's event loop right before {@code packet} is written.
+     *
+     * @return the packet to write in its place, or {@code null} to drop it
+     */
+    default P onEventLoop(ClientConnection connection, P packet) {
+        return packet;
+    }
+
+    /**
+     * Whether the packet's own serialisation depends on the recipient, in which case legacy
+     * connections publish themselves through
+     * {@link org.bacon.noviaversionkick.network.EncodingContext} while it is encoded.
+     */
+    default boolean encodesPerConnection() {
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+package org.bacon.noviaversionkick.network.translate;
+
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.s2c.play.ExplosionS2CPacket;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.network.packet.s2c.play.WorldEventS2CPacket;
+import org.bacon.noviaversionkick.network.ViaBrandTracker;
+
+import java.util.Arrays;
+
+/**
+ * Table of {@link PacketTranslator}s. Every registered packet type gets a dense id, which is
+ * its slot in the translator array, and each packet class is resolved once through a
+ * {@link ClassValue} to that id. Packet types without a translator cost that single lookup
+ * and nothing else.
+ *
+ * <p>Vanilla's numeric packet ids only exist per protocol phase inside the codec, which runs
+ * after these stages, so the ids here are assigned by registration order.
+ */
+public final class PacketTranslators {
+    private static final int NONE = -1;
+    private static final Class<?>[] PACKET_CLASSES;
+    private static final PacketTranslator<?>[] TRANSLATORS;
+    private static final ClassValue<Integer> TYPE_IDS = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            for (int typeId = 0; typeId < PACKET_CLASSES.length; typeId++) {
+                if (PACKET_CLASSES[typeId].isAssignableFrom(type)) {
+                    return typeId;
+                }
+            }
+            return NONE;
+        }
+    };
+    // The replacement being passed back to send; replacements are only returned on the server thread
+    private static Packet<?> resending;
+
+    static {
+        Builder builder = new Builder();
+        builder.register(ParticleS2CPacket.class, new ParticleTranslator());
+        builder.register(ExplosionS2CPacket.class, new ExplosionTranslator());
+        builder.register(WorldEventS2CPacket.class, new WorldEventTranslator());
+        PACKET_CLASSES = builder.classes;
+        TRANSLATORS = builder.translators;
+    }
+
+    private PacketTranslators() {
+    }
+
+    /**
+     * @return the translator for {@code packet}, or {@code null} if its type is not translated
+     */
+    public static PacketTranslator<?> forPacket(Object packet) {
+        int typeId = TYPE_IDS.get(packet.getClass());
+        return typeId == NONE ? null : TRANSLATORS[typeId];
+    }
+
+    /**
+     * Runs the send stage of the translator registered for {@code packet}, if any. Packets
+     * passed back through {@link #resend} are returned unchanged.
+     *
+     * @return the packet to send, or {@code null} to drop it
+     */
+    @SuppressWarnings("unchecked")
+    public static <P extends Packet<?>> Packet<?> onSend(ClientConnection connection, P packet) {
+        PacketTranslator<P> translator = (PacketTranslator<P>) forPacket(packet);
+        if (translator == null || packet == resending || !appliesTo(translator, connection)) {
+            return packet;
+        }
+        return translator.onSend(connection, packet);
+    }
+
+    /**
+     * Runs the event loop stage of the translator registered for {@code packet}, if any.
+     *
+     * @return the packet to write, or {@code null} to drop it
+     */
+    @SuppressWarnings("unchecked")
+    public static <P extends Packet<?>> Packet<?> onEventLoop(ClientConnection connection, P packet) {
+        PacketTranslator<P> translator = (PacketTranslator<P>) forPacket(packet);
+        if (translator == null || !appliesTo(translator, connection)) {
+            return packet;
+        }
+        return translator.onEventLoop(connection, packet);
+    }
+
+    /**
+     * Sends {@code packet}, returned by {@link #onSend} in place of the original, without
+     * translating it a second time.
+     */
+    public static void resend(ClientConnection connection, Packet<?> packet, boolean flush) {
+        resending = packet;
+        try {
+            connection.send(packet, null, flush);
+        } finally {
+            resending = null;
+        }
+    }
+
+    private static boolean appliesTo(PacketTranslator<?> translator, ClientConnection connection) {
+        int classes = translator.clientClasses();
+        if (classes == PacketTranslator.ALL_CLIENTS) {
+            return true;
+        }
+        int clientClass = ViaBrandTracker.shouldUseLegacyParticles(connection) ? PacketTranslator.LEGACY_CLIENTS : PacketTranslator.MODERN_CLIENTS;
+        return (classes & clientClass) != 0;
+    }
+
+    private static final class Builder {
+        private Class<?>[] classes = new Class<?>[0];
+        private PacketTranslator<?>[] translators = new PacketTranslator<?>[0];
+
+        private <P extends Packet<?>> void register(Class<P> packetClass, PacketTranslator<P> translator) {
+            int typeId = this.classes.length;
+            this.classes = Arrays.copyOf(this.classes, typeId + 1);
+            this.translators = Arrays.copyOf(this.translators, typeId + 1);
+            this.classes[typeId] = packetClass;
+            this.translators[typeId] = translator;
+        }
+    }
+}
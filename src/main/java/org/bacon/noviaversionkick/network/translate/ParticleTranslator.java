@@ -0,0 +1,31 @@
+package org.bacon.noviaversionkick.network.translate;
+
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import org.bacon.noviaversionkick.network.ParticleSendFilter;
+
+/**
+ * Applies the per-recipient particle filters. The legacy encoding itself happens when the
+ * packet is written, using the connection published for the encode call.
+ */
+final class ParticleTranslator implements PacketTranslator<ParticleS2CPacket> {
+    @Override
+    public int clientClasses() {
+        return ALL_CLIENTS;
+    }
+
+    @Override
+    public ParticleS2CPacket onSend(ClientConnection connection, ParticleS2CPacket packet) {
+        return ParticleSendFilter.filterOnSend(connection, packet);
+    }
+
+    @Override
+    public ParticleS2CPacket onEventLoop(ClientConnection connection, ParticleS2CPacket packet) {
+        return ParticleSendFilter.filterOnEventLoop(connection, packet);
+    }
+
+    @Override
+    public boolean encodesPerConnection() {
+        return true;
+    }
+}
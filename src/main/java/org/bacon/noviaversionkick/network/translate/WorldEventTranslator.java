@@ -0,0 +1,42 @@
+package org.bacon.noviaversionkick.network.translate;
+
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.s2c.play.WorldEventS2CPacket;
+import net.minecraft.particle.ParticleType;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.registry.Registries;
+import org.bacon.noviaversionkick.network.ParticleRuleTable;
+
+/**
+ * Drops world events sent to legacy clients whose only effect is a particle type that the
+ * rule table suppresses. Events that also play a sound or change the world are kept.
+ */
+final class WorldEventTranslator implements PacketTranslator<WorldEventS2CPacket> {
+    @Override
+    public int clientClasses() {
+        return LEGACY_CLIENTS;
+    }
+
+    @Override
+    public WorldEventS2CPacket onEventLoop(ClientConnection connection, WorldEventS2CPacket packet) {
+        ParticleType<?> type = particleOnly(packet.getEventId());
+        if (type == null) {
+            return packet;
+        }
+        return ParticleRuleTable.get().action(Registries.PARTICLE_TYPE.getRawId(type)) == ParticleRuleTable.SUPPRESS ? null : packet;
+    }
+
+    private static ParticleType<?> particleOnly(int eventId) {
+        return switch (eventId) {
+            // Dispenser smoke
+            case 2000 -> ParticleTypes.SMOKE;
+            // Lightning rod and copper sparks
+            case 3002 -> ParticleTypes.ELECTRIC_SPARK;
+            // Wax scraped off copper
+            case 3004 -> ParticleTypes.WAX_OFF;
+            // Oxidation scraped off copper
+            case 3005 -> ParticleTypes.SCRAPE;
+            default -> null;
+        };
+    }
+}
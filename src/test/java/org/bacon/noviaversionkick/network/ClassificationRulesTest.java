@@ -0,0 +1,134 @@
+package org.bacon.noviaversionkick.network;
+
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassificationRulesTest {
+    @Test
+    void firstMatchingRuleWinsWhenPatternsOverlap() {
+        ClassificationRules rules = rules("modern",
+            brand("she", "modern"),
+            brand("he", "legacy"),
+            brand("hers", "legacy"));
+        assertEquals(0, rules.classify("ushers", null, null));
+        assertEquals(1, rules.classify("ahers", null, null));
+        assertEquals(1, rules.classify("HE", null, null));
+        assertEquals(-1, rules.classify("sh", null, null));
+    }
+
+    @Test
+    void patternsEndingInsideLongerPatternsAreFoundThroughFailureLinks() {
+        ClassificationRules rules = rules("modern",
+            brand("abcd", "legacy"),
+            brand("bc", "legacy"),
+            brand("c", "modern"));
+        assertEquals(1, rules.classify("abce", null, null));
+        assertEquals(0, rules.classify("xabcd", null, null));
+        assertEquals(2, rules.classify("ac", null, null));
+        assertEquals(1, rules.classify("aabcc", null, null));
+    }
+
+    @Test
+    void ruleWithoutBrandConditionMatchesAnyBrand() {
+        ClassificationRules rules = rules("modern", mods(List.of("sodium"), List.of(), "legacy"));
+        assertEquals(0, rules.classify(null, modBits("sodium"), null));
+        assertEquals(0, rules.classify("vanilla", modBits("sodium-extra"), null));
+        assertEquals(-1, rules.classify("vanilla", modBits("lithium"), null));
+        assertEquals(-1, rules.classify("vanilla", null, null));
+    }
+
+    @Test
+    void ruleWithoutModConditionMatchesAnyModList() {
+        ClassificationRules rules = rules("modern", brand("fabric", "legacy"));
+        assertEquals(0, rules.classify("fabric", null, null));
+        assertEquals(0, rules.classify("fabric", modBits("anything"), new String[] {"overflow"}));
+        assertEquals(-1, rules.classify(null, modBits("anything"), null));
+    }
+
+    @Test
+    void ruleWithoutConditionsMatchesEveryClient() {
+        ClassificationRules rules = rules("modern", new NoviaversionkickConfig.ClassificationRule(List.of(), List.of(), "legacy"));
+        assertEquals(0, rules.classify(null, null, null));
+        assertEquals(0, rules.classify("vanilla", modBits("lithium"), null));
+    }
+
+    @Test
+    void ruleNeedsBothBrandAndModConditions() {
+        ClassificationRules rules = rules("modern", new NoviaversionkickConfig.ClassificationRule(List.of("fabric"), List.of("sodium"), "legacy"));
+        assertEquals(0, rules.classify("fabric", modBits("sodium"), null));
+        assertEquals(-1, rules.classify("fabric", modBits("lithium"), null));
+        assertEquals(-1, rules.classify("vanilla", modBits("sodium"), null));
+    }
+
+    @Test
+    void exactModIdsIgnoreCase() {
+        ClassificationRules rules = rules("modern", mods(List.of(), List.of("Sodium"), "legacy"));
+        assertEquals(0, rules.classify("vanilla", modBits("sodium"), null));
+        assertEquals(0, rules.classify("vanilla", null, new String[] {"SODIUM"}));
+        assertEquals(-1, rules.classify("vanilla", modBits("sodium-extra"), null));
+    }
+
+    @Test
+    void overflowModsAreMatchedLikePooledOnes() {
+        ClassificationRules rules = rules("modern", mods(List.of("iris"), List.of(), "legacy"));
+        assertEquals(0, rules.classify("vanilla", null, new String[] {"unpooled-iris-addon"}));
+        assertEquals(-1, rules.classify("vanilla", null, new String[] {"unpooled"}));
+    }
+
+    @Test
+    void unmatchedClientsGetTheDefaultEncoding() {
+        assertTrue(rules("legacy").legacy(-1));
+        assertTrue(rules(" LEGACY ").legacy(-1));
+        assertFalse(rules("modern").legacy(-1));
+        assertFalse(rules("unknown").legacy(-1));
+        assertFalse(rules(null).legacy(-1));
+    }
+
+    @Test
+    void matchedRulesUseTheirOwnEncoding() {
+        ClassificationRules rules = rules("legacy", brand("a", "modern"), brand("b", "legacy"));
+        assertFalse(rules.legacy(rules.classify("a", null, null)));
+        assertTrue(rules.legacy(rules.classify("b", null, null)));
+        assertTrue(rules.legacy(rules.classify("c", null, null)));
+    }
+
+    @Test
+    void rulesWithUnknownEncodingAreSkipped() {
+        ClassificationRules rules = rules("modern", brand("a", "sideways"), brand("a", "legacy"));
+        assertEquals(0, rules.classify("a", null, null));
+        assertTrue(rules.legacy(0));
+    }
+
+    private static ClassificationRules rules(String defaultEncoding, NoviaversionkickConfig.ClassificationRule... rules) {
+        NoviaversionkickConfig.Classification config = new NoviaversionkickConfig.Classification();
+        config.rules = new ArrayList<>(List.of(rules));
+        config.defaultEncoding = defaultEncoding;
+        return ClassificationRules.rebuild(config);
+    }
+
+    private static NoviaversionkickConfig.ClassificationRule brand(String brandContains, String encoding) {
+        return new NoviaversionkickConfig.ClassificationRule(List.of(brandContains), List.of(), encoding);
+    }
+
+    private static NoviaversionkickConfig.ClassificationRule mods(List<String> modIdContains, List<String> modIds, String encoding) {
+        NoviaversionkickConfig.ClassificationRule rule = new NoviaversionkickConfig.ClassificationRule(List.of(), modIdContains, encoding);
+        rule.modIds = new ArrayList<>(modIds);
+        return rule;
+    }
+
+    private static long[] modBits(String... modIds) {
+        long[] bits = new long[ModIdPool.MAX_IDS >>> 6];
+        for (String modId : modIds) {
+            int id = ModIdPool.intern(modId);
+            bits[id >>> 6] |= 1L << id;
+        }
+        return bits;
+    }
+}
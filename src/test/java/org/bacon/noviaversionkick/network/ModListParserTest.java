@@ -0,0 +1,139 @@
+package org.bacon.noviaversionkick.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModListParserTest {
+    @Test
+    void parsesVersionedPairs() {
+        ByteBuf buf = Unpooled.buffer();
+        writeVarInt(buf, 1);
+        writeVarInt(buf, 2);
+        writeString(buf, " Fabric-API ");
+        writeString(buf, "0.140.2");
+        writeString(buf, "Sodium");
+        writeString(buf, "0.6.0");
+        assertEquals(List.of("fabric-api", "sodium"), parse(buf));
+    }
+
+    @Test
+    void parsesCountedIds() {
+        ByteBuf buf = Unpooled.buffer();
+        writeVarInt(buf, 3);
+        writeString(buf, "fabricloader");
+        writeString(buf, "lithium");
+        writeString(buf, "modmenu");
+        assertEquals(List.of("fabricloader", "lithium", "modmenu"), parse(buf));
+    }
+
+    @Test
+    void parsesIdsBackToBack() {
+        ByteBuf buf = Unpooled.buffer();
+        writeString(buf, "fabric");
+        writeString(buf, "sodium");
+        writeString(buf, "fabric");
+        assertEquals(List.of("fabric", "sodium"), parse(buf));
+    }
+
+    @Test
+    void backToBackIdsEndAtAnEmptyString() {
+        ByteBuf buf = Unpooled.buffer();
+        writeString(buf, "a-mod");
+        writeString(buf, "");
+        writeString(buf, "ignored");
+        assertEquals(List.of("a-mod"), parse(buf));
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        ByteBuf truncatedString = Unpooled.buffer();
+        writeVarInt(truncatedString, 10);
+        truncatedString.writeBytes("abc".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of(), parse(truncatedString));
+
+        ByteBuf truncatedVarInt = Unpooled.buffer();
+        truncatedVarInt.writeByte(0x80);
+        assertEquals(List.of(), parse(truncatedVarInt));
+
+        assertEquals(List.of(), parse(Unpooled.buffer()));
+    }
+
+    @Test
+    void rejectsOverLongInput() {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeZero(ModListParser.MAX_PAYLOAD_BYTES + 1);
+        assertEquals(List.of(), parse(payload));
+
+        ByteBuf string = Unpooled.buffer();
+        writeString(string, "a".repeat(ModListParser.MAX_STRING_BYTES * 2));
+        assertEquals(List.of(), parse(string));
+    }
+
+    @Test
+    void rejectsCountLargerThanReadableBytes() {
+        ByteBuf small = Unpooled.buffer();
+        writeVarInt(small, 100);
+        writeString(small, "sodium");
+        assertEquals(List.of(), parse(small));
+
+        ByteBuf large = Unpooled.buffer();
+        writeVarInt(large, 100_000);
+        writeString(large, "sodium");
+        assertEquals(List.of(), parse(large));
+    }
+
+    @Test
+    void leavesTheReaderIndexWhereItWas() {
+        ByteBuf malformed = Unpooled.buffer();
+        malformed.writeByte(0x7F);
+        writeVarInt(malformed, 100);
+        writeString(malformed, "sodium");
+        malformed.readByte();
+        int readerIndex = malformed.readerIndex();
+        int writerIndex = malformed.writerIndex();
+        assertEquals(List.of(), ModListParser.parse(malformed));
+        assertEquals(readerIndex, malformed.readerIndex());
+        assertEquals(writerIndex, malformed.writerIndex());
+        malformed.release();
+
+        ByteBuf valid = Unpooled.buffer();
+        valid.writeByte(0x7F);
+        writeVarInt(valid, 1);
+        writeString(valid, "sodium");
+        valid.readByte();
+        assertEquals(List.of("sodium"), ModListParser.parse(valid));
+        assertEquals(1, valid.readerIndex());
+        valid.release();
+    }
+
+    private static List<String> parse(ByteBuf buf) {
+        int readerIndex = buf.readerIndex();
+        try {
+            List<String> modIds = ModListParser.parse(buf);
+            assertEquals(readerIndex, buf.readerIndex());
+            return modIds;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(buf, bytes.length);
+        buf.writeBytes(bytes);
+    }
+}
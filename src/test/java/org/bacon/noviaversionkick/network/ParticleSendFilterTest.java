@@ -0,0 +1,41 @@
+package org.bacon.noviaversionkick.network;
+
+import org.bacon.noviaversionkick.config.NoviaversionkickConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParticleSendFilterTest {
+    private static final NoviaversionkickConfig.CullingProfile PROFILE = new NoviaversionkickConfig.CullingProfile();
+
+    @Test
+    void bandsApplyTheirScaleInOrder() {
+        assertEquals(1.0D, ParticleSendFilter.bandScale(PROFILE, 16.0D * 16.0D));
+        assertEquals(1.0D, ParticleSendFilter.bandScale(PROFILE, 32.0D * 32.0D));
+        assertEquals(0.5D, ParticleSendFilter.bandScale(PROFILE, 40.0D * 40.0D));
+        assertEquals(0.25D, ParticleSendFilter.bandScale(PROFILE, 100.0D * 100.0D));
+        assertEquals(0.0D, ParticleSendFilter.bandScale(PROFILE, 600.0D * 600.0D));
+    }
+
+    @Test
+    void zeroCountParticleIsKeptInsidePartialBand() {
+        double scale = ParticleSendFilter.bandScale(PROFILE, 40.0D * 40.0D);
+        assertEquals(0, ParticleSendFilter.culledCount(0, scale));
+        assertEquals(0, ParticleSendFilter.culledCount(0, 0.01D));
+    }
+
+    @Test
+    void zeroCountParticleIsDroppedBeyondEveryBand() {
+        double scale = ParticleSendFilter.bandScale(PROFILE, 600.0D * 600.0D);
+        assertEquals(-1, ParticleSendFilter.culledCount(0, scale));
+    }
+
+    @Test
+    void countsAreScaledAndDroppedWhenNothingRemains() {
+        assertEquals(20, ParticleSendFilter.culledCount(20, 1.0D));
+        assertEquals(10, ParticleSendFilter.culledCount(20, 0.5D));
+        assertEquals(1, ParticleSendFilter.culledCount(3, 0.25D));
+        assertEquals(-1, ParticleSendFilter.culledCount(1, 0.25D));
+        assertEquals(-1, ParticleSendFilter.culledCount(20, 0.0D));
+    }
+}